@@ -0,0 +1,158 @@
+/* 
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.loopj.twicecircled.android.http.AsyncHttpClient;
+import com.loopj.twicecircled.android.http.CachingHostNameResolver;
+import com.loopj.twicecircled.android.http.StreamingHttpResponseHandler;
+
+/**
+ * Default {@link Transport}, sends events using the bundled AsyncHttpClient.
+ */
+public class AsyncHttpClientTransport implements Transport {
+
+	// Error bodies are short messages, don't read more than this
+	private static final int MAX_ERROR_BODY_LENGTH = 4096;
+
+	// Responses are handled on a single background thread so that deleting
+	// sent events and parsing errors never happens on the UI thread. Each
+	// transport has its own, so clients don't wait on each other's deletes.
+	// The thread stops when idle.
+	private final ThreadPoolExecutor callbackExecutor;
+
+	private final AsyncHttpClient client;
+	private final Context context;
+
+	public AsyncHttpClientTransport(Context context) {
+		this(context, new AsyncHttpClient());
+	}
+
+	public AsyncHttpClientTransport(Context context, AsyncHttpClient client) {
+		this.context = context;
+		this.client = client;
+		callbackExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		// Needs API 9
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			callbackExecutor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	public void post(String url, byte[] body, Map<String, String> headers,
+			final ResponseListener listener) {
+		Header[] requestHeaders = new Header[headers.size()];
+		int i = 0;
+		for (Entry<String, String> header : headers.entrySet()) {
+			requestHeaders[i++] = new BasicHeader(header.getKey(),
+					header.getValue());
+		}
+		// Success bodies are never used so they aren't read into memory, error
+		// bodies are parsed straight off the connection
+		client.post(context, url, new ByteArrayEntity(body), null,
+				requestHeaders, new StreamingHttpResponseHandler(
+						callbackExecutor) {
+					@Override
+					public void onSuccess(int statusCode, String content) {
+						listener.onResponse(statusCode, content);
+					}
+
+					@Override
+					protected Object parseErrorBody(int statusCode, Reader body)
+							throws IOException {
+						return ErrorResponse.fromBody(body,
+								MAX_ERROR_BODY_LENGTH);
+					}
+
+					@Override
+					public void onErrorResponse(int statusCode, Object error) {
+						listener.onErrorResponse(statusCode,
+								(ErrorResponse) error);
+					}
+
+					@Override
+					public void onFailure(Throwable error, String content) {
+						listener.onFailure(error);
+					}
+				});
+	}
+
+	public void postAll(List<Post> posts) {
+		for (Post post : posts) {
+			post(post.url, post.body, post.headers, post.listener);
+		}
+	}
+
+	public int getRemainingCapacity() {
+		return client.getRemainingCapacity();
+	}
+
+	public boolean drain(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		if (!client.drain(timeoutMillis)) {
+			return false;
+		}
+		// Responses are handled on the callback thread after the request has
+		// finished, wait for that to catch up too
+		try {
+			callbackExecutor.submit(new Runnable() {
+				public void run() {
+				}
+			}).get(Math.max(deadline - System.currentTimeMillis(), 0),
+					TimeUnit.MILLISECONDS);
+			return true;
+		} catch (ExecutionException e) {
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		}
+	}
+
+	public void warmUp(String url, boolean openConnection) {
+		client.warmUp(url, openConnection);
+	}
+
+	public ConnectionStats getConnectionStats() {
+		CachingHostNameResolver resolver = client.getHostNameResolver();
+		return new ConnectionStats(client.getRequestCount(),
+				client.getReusedConnectionCount(), resolver.getHitCount(),
+				resolver.getMissCount());
+	}
+
+	public AsyncHttpClient getClient() {
+		return client;
+	}
+}
@@ -23,14 +23,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
-import org.apache.http.Header;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.message.BasicHeader;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import com.google.gson.Gson;
-import com.loopj.twicecircled.android.http.AsyncHttpClient;
 
 public class BatchThread extends Thread {
 
@@ -40,32 +36,38 @@ public class BatchThread extends Thread {
 	// - Specific time interval passed
 	// - Data connection available
 	//
-	// ... the BatchThread locks the database (so no more events can be added)
-	// until it has grabbed all the current events and wiped the database.
-	// Next it batches them into JSON arrays and sends them to the GameAnalytics
-	// server.
+	// ... the BatchThread reads every event up to the newest row id at that
+	// moment (events can still be added while it reads). Next it batches them
+	// into JSON arrays and sends them to the GameAnalytics server, deleting
+	// each set once the server has accepted it.
 	//
 	// When another event is logged a new BatchThread is started and the process
 	// is repeated.
 
 	// Once a BatchThread has started it is capable of running independently
-	// from the application. Hence all non-final static fields are passed into
-	// the BatchThread in its constructor:
+	// from the application. Hence all settings are passed into the
+	// BatchThread in its constructor, along with the client it sends for:
+	private GameAnalyticsClient client;
+	private EventDatabase database;
 	private String defaultGameKey;
 	private String defaultSecretKey;
 	private int sendEventInterval;
 	private int networkPollInterval;
 	private Context context;
-	private AsyncHttpClient client;
+	private Transport transport;
 	private boolean cacheLocally;
 	private boolean pollNetwork = true;
 
-	protected BatchThread(Context context, AsyncHttpClient client,
-			String gameKey, String secretKey,
+	private static final String JSON_CHARSET = "ISO-8859-1";
+
+	protected BatchThread(GameAnalyticsClient client, Context context,
+			Transport transport, String gameKey, String secretKey,
 			int sendEventInterval, int networkPollInterval, boolean cacheLocally) {
 		super();
-		this.context = context;
 		this.client = client;
+		this.database = client.getDatabase();
+		this.context = context;
+		this.transport = transport;
 		this.defaultGameKey = gameKey;
 		this.defaultSecretKey = secretKey;
 		this.sendEventInterval = sendEventInterval;
@@ -93,20 +95,26 @@ public class BatchThread extends Thread {
 			GALog.i("Time interval passed");
 		} // Otherwise there is no interval so thread continues immediately
 
+		// If the previous batch has finished deleting its events this is a
+		// quiet moment to give some free pages back to the file system
+		if (!client.isSendingEvents()) {
+			database.reclaimFreePages(context);
+		}
+
 		// Is cache locally enabled?
 		if (!cacheLocally && !isNetworkConnected()) {
 			// Wipe database
 			GALog.i("No network available and cache locally is disabled, clearing events");
-			EventDatabase.clear(context);
+			database.clear(context);
 			// Don't bother polling network
-			GameAnalytics.canStartNewThread();
+			client.canStartNewThread();
 			return;
 		}
 
 		// Is network polling disabled
 		if (!pollNetwork && !isNetworkConnected()) {
 			GALog.i("No network available");
-			GameAnalytics.canStartNewThread();
+			client.canStartNewThread();
 			return;
 		}
 
@@ -129,25 +137,29 @@ public class BatchThread extends Thread {
 	@SuppressWarnings("unchecked")
 	private void sendEvents() {
 		// Final check to make sure analytics has not been disabled
-		if (GameAnalytics.isDisabled()) {
+		if (client.isDisabled()) {
 			// Analytics has been disabled by user, we need to go into database
 			// and delete any events that were created before this preference was
 			// detected (ie those without user ids)
-			EventDatabase.deleteEventsWithoutUserId(context);
+			database.deleteEventsWithoutUserId(context);
 
 			// Make it clear for new thread despite the disable
-			GameAnalytics.canStartNewThread();
+			client.canStartNewThread();
 			return;
 		}
 
 		// Get events from database
-		Object[] eventLists = EventDatabase.getEvents(context);
+		Object[] eventLists = database.getEvents(context);
 		HashMap<String, EventList<DesignEvent>> designEvents = (HashMap<String, EventList<DesignEvent>>) eventLists[0];
 		HashMap<String, EventList<BusinessEvent>> businessEvents = (HashMap<String, EventList<BusinessEvent>>) eventLists[1];
 		HashMap<String, EventList<UserEvent>> userEvents = (HashMap<String, EventList<UserEvent>>) eventLists[2];
 		HashMap<String, EventList<QualityEvent>> qualityEvents = (HashMap<String, EventList<QualityEvent>>) eventLists[3];
 		HashMap<String, EventList<ErrorEvent>> errorEvents = (HashMap<String, EventList<ErrorEvent>>) eventLists[4];
 
+		// Requests are collected and handed to the transport together, so it
+		// can send them over one connection
+		ArrayList<Transport.Post> posts = new ArrayList<Transport.Post>();
+
 		// For each game id and event array
 		String eventGameKey;
 		EventList<?> eventList;
@@ -161,7 +173,7 @@ public class BatchThread extends Thread {
 				eventList = e.getValue();
 				if (!eventList.isEmpty()) {
 					sendEventSet(gson.toJson(eventList), GameAnalytics.DESIGN,
-							eventGameKey, eventList);
+							eventGameKey, eventList, posts);
 				}
 			}
 		} else {
@@ -174,7 +186,8 @@ public class BatchThread extends Thread {
 				eventList = e.getValue();
 				if (!eventList.isEmpty()) {
 					sendEventSet(gson.toJson(eventList),
-							GameAnalytics.BUSINESS, eventGameKey, eventList);
+							GameAnalytics.BUSINESS, eventGameKey, eventList,
+							posts);
 				}
 			}
 		} else {
@@ -186,8 +199,9 @@ public class BatchThread extends Thread {
 				eventGameKey = e.getKey();
 				eventList = e.getValue();
 				if (!eventList.isEmpty()) {
+					loadStoredQualityMessages(e.getValue());
 					sendEventSet(gson.toJson(eventList), GameAnalytics.QUALITY,
-							eventGameKey, eventList);
+							eventGameKey, eventList, posts);
 				}
 			}
 		} else {
@@ -199,7 +213,7 @@ public class BatchThread extends Thread {
 				eventList = e.getValue();
 				if (!eventList.isEmpty()) {
 					sendEventSet(gson.toJson(eventList), GameAnalytics.USER,
-							eventGameKey, eventList);
+							eventGameKey, eventList, posts);
 				}
 			}
 		} else {
@@ -211,23 +225,58 @@ public class BatchThread extends Thread {
 				eventGameKey = e.getKey();
 				eventList = e.getValue();
 				if (!eventList.isEmpty()) {
+					loadStoredErrorMessages(e.getValue());
 					sendEventSet(gson.toJson(eventList), GameAnalytics.ERROR,
-							eventGameKey, eventList);
+							eventGameKey, eventList, posts);
 				}
 			}
 		} else {
 			GALog.i("No error events to send.");
 		}
+		if (!posts.isEmpty()) {
+			transport.postAll(posts);
+		}
 		// If there are no events to be sent then allow a new thread to be
 		// started
-		GameAnalytics.checkIfNoEvents();
+		client.checkIfNoEvents();
+	}
+
+	// Large messages are kept out of the main events query and only loaded
+	// here, just before the events are converted to JSON.
+	private void loadStoredQualityMessages(EventList<QualityEvent> eventList) {
+		for (int i = 0; i < eventList.size(); i++) {
+			QualityEvent event = eventList.get(i);
+			if (event.isMessageStored()) {
+				event.setMessage(database.loadStoredMessage(eventList
+						.getEventIdList().get(i), context));
+			}
+		}
+	}
+
+	private void loadStoredErrorMessages(EventList<ErrorEvent> eventList) {
+		for (int i = 0; i < eventList.size(); i++) {
+			ErrorEvent event = eventList.get(i);
+			if (event.isMessageStored()) {
+				event.setMessage(database.loadStoredMessage(eventList
+						.getEventIdList().get(i), context));
+			}
+		}
 	}
 
 	private void sendEventSet(String json, String category,
-			String eventGameKey, EventList<?> eventList) {
+			String eventGameKey, EventList<?> eventList,
+			ArrayList<Transport.Post> posts) {
+		// Don't queue more requests than the transport can take, leave the rest
+		// in the database for the next batch
+		if (transport.getRemainingCapacity() <= posts.size()) {
+			GALog.i("Transport is busy, leaving " + eventList.size() + " "
+					+ category + " events for next batch.");
+			return;
+		}
+
 		// Extract bits from eventList
 		String eventSecretKey = eventList.getSecretKey();
-		ArrayList<Integer> eventsToDelete = eventList.getEventIdList();
+		EventIdList eventsToDelete = eventList.getEventIdList();
 
 		// Game key for these events
 		if (eventGameKey == EventDatabase.DEFAULT_GAME_KEY) {
@@ -239,31 +288,36 @@ public class BatchThread extends Thread {
 		GALog.i("Raw JSON for " + category + " events, game key = "
 				+ eventGameKey + ", events being sent to GA server: " + json);
 
-		// Add auth header
-		Header[] headers = new Header[1];
-		headers[0] = new BasicHeader(GameAnalytics.AUTHORIZATION,
+		// Add auth and content type headers
+		HashMap<String, String> headers = new HashMap<String, String>();
+		headers.put(GameAnalytics.AUTHORIZATION,
 				getAuthorizationString(json, eventSecretKey));
+		headers.put(GameAnalytics.CONTENT_TYPE,
+				GameAnalytics.CONTENT_TYPE_JSON);
 
-		// POST request to server
-		StringEntity jsonEntity = null;
+		// POST request to server. Encoded as ISO-8859-1 to match the bytes
+		// hashed for the authorization header.
+		byte[] body;
 		try {
-			jsonEntity = new StringEntity(json);
+			body = json.getBytes(JSON_CHARSET);
 		} catch (UnsupportedEncodingException e) {
-			GALog.e("Error converting json String into StringEntity: "
+			GALog.e("Error converting json String into bytes: "
 					+ e.toString(), e);
+			return;
 		}
 
 		// Create handler
-		PostResponseHandler handler = new PostResponseHandler(eventsToDelete,
-				category, context);
+		PostResponseHandler handler = new PostResponseHandler(client,
+				eventsToDelete, category, context);
 
-		// Send event
-		client.post(context, GameAnalytics.API_URL + eventGameKey + category,
-				jsonEntity, GameAnalytics.CONTENT_TYPE_JSON, headers, handler);
+		// Notify the client that new thread should not be sent until handler
+		// has finished. Done before posting because a rejected request
+		// finishes straight away.
+		client.sendingEvents(handler);
 
-		// Notify GameAnalytics that new thread should not be sent until handler
-		// has finished
-		GameAnalytics.sendingEvents(handler);
+		// Queue event, sent at the end of sendEvents()
+		posts.add(new Transport.Post(GameAnalytics.API_URL + eventGameKey
+				+ category, body, headers, handler));
 	}
 
 	private String getAuthorizationString(String json, String eventSecretKey) {
@@ -0,0 +1,228 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import android.content.Context;
+
+/**
+ * Snapshot of the GameAnalytics settings and session context. Never changed
+ * once published: every change makes a modified copy, which replaces the
+ * current snapshot through a single volatile field. A thread that reads the
+ * snapshot once sees a consistent set of values, e.g. a user id and session
+ * id that belong together.
+ */
+public class Configuration implements Cloneable {
+	// Fields are only assigned on a fresh copy, before it is published
+	private Context context;
+	private Transport transport;
+	private String gameKey;
+	private String secretKey;
+	private String build;
+	private String userId;
+	private String googleAID;
+	private String unhashedAndroidId;
+	private String sessionId;
+	private String area;
+	private int sendEventInterval = 20000; // Default is 20 secs
+	private int networkPollInterval = 60000; // Default is 60 secs
+	private int sessionTimeOut = 20000; // Default is 20 secs
+	private long sessionEndTime;
+	private boolean cacheLocally = true;
+	private boolean autoBatch = true;
+	private boolean initialised;
+	private boolean sessionStarted;
+	private boolean disabled;
+
+	private Configuration copy() {
+		try {
+			return (Configuration) clone();
+		} catch (CloneNotSupportedException e) {
+			// Can't happen, we implement Cloneable
+			throw new AssertionError(e);
+		}
+	}
+
+	protected Configuration initialise(Context context, Transport transport,
+			String gameKey, String secretKey, String build,
+			String unhashedAndroidId) {
+		Configuration c = copy();
+		c.context = context;
+		c.transport = transport;
+		c.gameKey = gameKey;
+		c.secretKey = secretKey;
+		c.build = build;
+		c.unhashedAndroidId = unhashedAndroidId;
+		c.disabled = false;
+		c.initialised = true;
+		return c;
+	}
+
+	/**
+	 * @param sessionId
+	 *            new session id, or null to keep the current one
+	 */
+	protected Configuration startSession(Context context, String area,
+			String sessionId) {
+		Configuration c = copy();
+		c.context = context;
+		c.area = area;
+		if (sessionId != null) {
+			c.sessionId = sessionId;
+		}
+		c.sessionStarted = true;
+		return c;
+	}
+
+	protected Configuration stopSession(long sessionEndTime) {
+		Configuration c = copy();
+		c.sessionEndTime = sessionEndTime;
+		c.sessionStarted = false;
+		return c;
+	}
+
+	protected Configuration withUserId(String userId) {
+		Configuration c = copy();
+		c.userId = userId;
+		return c;
+	}
+
+	protected Configuration withGoogleAID(String googleAID) {
+		Configuration c = copy();
+		c.googleAID = googleAID;
+		return c;
+	}
+
+	protected Configuration withTransport(Transport transport) {
+		Configuration c = copy();
+		c.transport = transport;
+		return c;
+	}
+
+	protected Configuration withSendEventInterval(int sendEventInterval) {
+		Configuration c = copy();
+		c.sendEventInterval = sendEventInterval;
+		return c;
+	}
+
+	protected Configuration withNetworkPollInterval(int networkPollInterval) {
+		Configuration c = copy();
+		c.networkPollInterval = networkPollInterval;
+		return c;
+	}
+
+	protected Configuration withSessionTimeOut(int sessionTimeOut) {
+		Configuration c = copy();
+		c.sessionTimeOut = sessionTimeOut;
+		return c;
+	}
+
+	protected Configuration withCacheLocally(boolean cacheLocally) {
+		Configuration c = copy();
+		c.cacheLocally = cacheLocally;
+		return c;
+	}
+
+	protected Configuration withAutoBatch(boolean autoBatch) {
+		Configuration c = copy();
+		c.autoBatch = autoBatch;
+		return c;
+	}
+
+	protected Configuration withDisabled(boolean disabled) {
+		Configuration c = copy();
+		c.disabled = disabled;
+		return c;
+	}
+
+	protected Context getContext() {
+		return context;
+	}
+
+	protected Transport getTransport() {
+		return transport;
+	}
+
+	protected String getGameKey() {
+		return gameKey;
+	}
+
+	protected String getSecretKey() {
+		return secretKey;
+	}
+
+	protected String getBuild() {
+		return build;
+	}
+
+	protected String getUserId() {
+		return userId;
+	}
+
+	protected String getGoogleAID() {
+		return googleAID;
+	}
+
+	protected String getUnhashedAndroidId() {
+		return unhashedAndroidId;
+	}
+
+	protected String getSessionId() {
+		return sessionId;
+	}
+
+	protected String getArea() {
+		return area;
+	}
+
+	protected int getSendEventInterval() {
+		return sendEventInterval;
+	}
+
+	protected int getNetworkPollInterval() {
+		return networkPollInterval;
+	}
+
+	protected int getSessionTimeOut() {
+		return sessionTimeOut;
+	}
+
+	protected long getSessionEndTime() {
+		return sessionEndTime;
+	}
+
+	protected boolean isCacheLocally() {
+		return cacheLocally;
+	}
+
+	protected boolean isAutoBatch() {
+		return autoBatch;
+	}
+
+	protected boolean isInitialised() {
+		return initialised;
+	}
+
+	protected boolean isSessionStarted() {
+		return sessionStarted;
+	}
+
+	protected boolean isDisabled() {
+		return disabled;
+	}
+}
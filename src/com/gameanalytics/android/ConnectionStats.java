@@ -0,0 +1,83 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+/**
+ * Snapshot of HTTP connection statistics, returned by
+ * GameAnalytics.getConnectionStats().
+ */
+public class ConnectionStats {
+
+	private final long requestCount;
+	private final long reusedConnectionCount;
+	private final long dnsCacheHits;
+	private final long dnsCacheMisses;
+
+	public ConnectionStats(long requestCount, long reusedConnectionCount,
+			long dnsCacheHits, long dnsCacheMisses) {
+		this.requestCount = requestCount;
+		this.reusedConnectionCount = reusedConnectionCount;
+		this.dnsCacheHits = dnsCacheHits;
+		this.dnsCacheMisses = dnsCacheMisses;
+	}
+
+	/**
+	 * @return number of requests sent
+	 */
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return number of requests sent over an already open keep-alive
+	 *         connection
+	 */
+	public long getReusedConnectionCount() {
+		return reusedConnectionCount;
+	}
+
+	/**
+	 * @return fraction of requests that reused a connection, between 0 and 1
+	 */
+	public float getConnectionReuseRate() {
+		return requestCount == 0 ? 0 : (float) reusedConnectionCount
+				/ requestCount;
+	}
+
+	/**
+	 * @return number of host lookups answered from the DNS cache
+	 */
+	public long getDnsCacheHits() {
+		return dnsCacheHits;
+	}
+
+	/**
+	 * @return number of host lookups that had to go to the network
+	 */
+	public long getDnsCacheMisses() {
+		return dnsCacheMisses;
+	}
+
+	@Override
+	public String toString() {
+		return "requests: " + requestCount + ", reused connections: "
+				+ reusedConnectionCount + ", dns cache hits: " + dnsCacheHits
+				+ ", dns cache misses: " + dnsCacheMisses;
+	}
+}
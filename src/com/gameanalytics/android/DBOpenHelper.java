@@ -1,6 +1,8 @@
 package com.gameanalytics.android;
 
 import android.content.Context;
+import android.database.SQLException;
+import android.os.Build;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -8,10 +10,60 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 
 	// Database details
 	private final static String DB_NAME = "GameAnalytics";
-	private final static int DB_VERSION = 4;
+	private final static int DB_VERSION = 7;
 
-	public DBOpenHelper(Context context) {
-		super(context, DB_NAME, null, DB_VERSION);
+	private Context context;
+	private DatabaseProfile profile;
+	private SymbolTable symbols;
+	private boolean enableIncrementalVacuum;
+
+	/**
+	 * @param name
+	 *            name of the client the database belongs to, or null for the
+	 *            default client, which keeps the original file name
+	 */
+	public DBOpenHelper(Context context, String name, DatabaseProfile profile,
+			SymbolTable symbols) {
+		super(context, name == null ? DB_NAME : DB_NAME + "_" + name, null,
+				DB_VERSION);
+		this.context = context;
+		this.profile = profile;
+		this.symbols = symbols;
+	}
+
+	@Override
+	public void onConfigure(SQLiteDatabase db) {
+		// Only called on Jelly Bean and above, before onCreate() so the page
+		// size can still take effect.
+		profile.apply(db);
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		// Older devices don't call onConfigure()
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+				&& !db.isReadOnly()) {
+			profile.apply(db);
+		}
+		if (enableIncrementalVacuum && !db.isReadOnly()) {
+			// Switching auto-vacuum mode needs a full VACUUM, which can't run
+			// inside the onCreate()/onUpgrade() transaction. Setting the
+			// pragma in onCreate() isn't enough either, Android has already
+			// added its metadata table by then.
+			enableIncrementalVacuum = false;
+			GALog.i("Enabling incremental auto-vacuum.");
+			try {
+				db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+				db.execSQL("VACUUM");
+			} catch (SQLException e) {
+				GALog.w("Warning: unable to enable incremental auto-vacuum: "
+						+ e.toString());
+			}
+		}
+		if (!db.isReadOnly()) {
+			symbols.load(db, EventDatabase.TABLENAME,
+					EventDatabase.SYMBOL_COLUMNS);
+		}
 	}
 
 	@Override
@@ -20,11 +72,15 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 		// Create tables:
 		GALog.i("Creating database to store events.");
 		db.execSQL(EventDatabase.CREATE_TABLE);
+		db.execSQL(EventDatabase.CREATE_MESSAGE_TABLE);
+		db.execSQL(EventDatabase.CREATE_MESSAGE_TRIGGER);
+		db.execSQL(SymbolTable.CREATE_TABLE);
+		enableIncrementalVacuum = true;
 
 		// From version 1.14.0 onwards, we use Google AID if available.
 		// Set preference when creating table to avoid changing user IDs of
 		// existing users.
-		GameAnalytics.setNewUser(true);
+		GameAnalytics.setNewUser(context, true);
 	}
 
 	@Override
@@ -32,6 +88,10 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 		// Version 1 - ORIGINAL
 		// Version 2 - Added optional user fields
 		// Version 3 - Added severity column
+		// Version 4 - Added google_aid column
+		// Version 5 - Added message_chunks column and event_messages table
+		// Version 6 - Added symbol columns and symbols table
+		// Version 7 - Switched to incremental auto-vacuum
 		if (newVersion > oldVersion) {
 			String addColumn = "ALTER TABLE " + EventDatabase.TABLENAME + " ADD COLUMN ";
 			String text = " text";
@@ -57,6 +117,21 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			if (oldVersion <= 3) {
 				db.execSQL(addColumn + EventDatabase.GOOGLE_AID + text);
 			}
+			if (oldVersion <= 4) {
+				db.execSQL(addColumn + EventDatabase.MESSAGE_CHUNKS + " num");
+				db.execSQL(EventDatabase.CREATE_MESSAGE_TABLE);
+				db.execSQL(EventDatabase.CREATE_MESSAGE_TRIGGER);
+			}
+			if (oldVersion <= 5) {
+				String integer = " integer";
+				for (String column : EventDatabase.SYMBOL_COLUMNS) {
+					db.execSQL(addColumn + column + integer);
+				}
+				db.execSQL(SymbolTable.CREATE_TABLE);
+			}
+			if (oldVersion <= 6) {
+				enableIncrementalVacuum = true;
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Durability/performance settings for the local event database. Use
+ * GameAnalytics.SAFE_DATABASE_PROFILE or GameAnalytics.FAST_DATABASE_PROFILE,
+ * or construct your own and pass it into GameAnalytics.initialise().
+ */
+public class DatabaseProfile {
+
+	/**
+	 * PRAGMA synchronous = OFF. Fastest, events may be lost or the database
+	 * corrupted if the device loses power.
+	 */
+	public static final int SYNCHRONOUS_OFF = 0;
+	/**
+	 * PRAGMA synchronous = NORMAL. With write-ahead logging the database stays
+	 * consistent, but the last few events may be lost on power failure.
+	 */
+	public static final int SYNCHRONOUS_NORMAL = 1;
+	/**
+	 * PRAGMA synchronous = FULL. Every insert is synced to disk.
+	 */
+	public static final int SYNCHRONOUS_FULL = 2;
+
+	private final String name;
+	private final boolean writeAheadLogging;
+	private final int synchronous;
+	private final long pageSize;
+	private final int cacheSize;
+
+	/**
+	 * @param name
+	 *            name used in debug logging
+	 * @param writeAheadLogging
+	 *            true to open the database in WAL journal mode so the batch
+	 *            thread can read while events are being inserted. Devices
+	 *            older than Honeycomb don't support it and fall back to the
+	 *            rollback journal.
+	 * @param synchronous
+	 *            one of SYNCHRONOUS_OFF, SYNCHRONOUS_NORMAL or SYNCHRONOUS_FULL
+	 * @param pageSize
+	 *            page size in bytes (power of two), or 0 for the SQLite
+	 *            default. Only applies when the database is first created.
+	 * @param cacheSize
+	 *            page cache size in pages, or 0 for the SQLite default
+	 */
+	public DatabaseProfile(String name, boolean writeAheadLogging,
+			int synchronous, long pageSize, int cacheSize) {
+		this.name = name;
+		this.writeAheadLogging = writeAheadLogging;
+		this.synchronous = synchronous;
+		this.pageSize = pageSize;
+		this.cacheSize = cacheSize;
+	}
+
+	protected void apply(SQLiteDatabase db) {
+		GALog.i("Applying " + name + " database profile.");
+		if (pageSize > 0) {
+			// Ignored by SQLite once the database has content
+			db.setPageSize(pageSize);
+		}
+		if (writeAheadLogging) {
+			// enableWriteAheadLogging() was only added in Honeycomb
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+					|| !db.enableWriteAheadLogging()) {
+				GALog.i("Write-ahead logging not available, using rollback journal.");
+			}
+		}
+		switch (synchronous) {
+		case SYNCHRONOUS_OFF:
+			db.execSQL("PRAGMA synchronous = OFF");
+			break;
+		case SYNCHRONOUS_NORMAL:
+			db.execSQL("PRAGMA synchronous = NORMAL");
+			break;
+		case SYNCHRONOUS_FULL:
+			db.execSQL("PRAGMA synchronous = FULL");
+			break;
+		default:
+			GALog.w("Warning: unsupported synchronous level in DatabaseProfile, use DatabaseProfile.SYNCHRONOUS_NORMAL etc.");
+			break;
+		}
+		if (cacheSize > 0) {
+			db.execSQL("PRAGMA cache_size = " + cacheSize);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
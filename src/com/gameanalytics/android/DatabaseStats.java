@@ -0,0 +1,139 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+/**
+ * Snapshot of local event database statistics, returned by
+ * GameAnalytics.getDatabaseStats().
+ */
+public class DatabaseStats {
+
+	private final long lockAcquisitions;
+	private final long totalLockHoldNanos;
+	private final long maxLockHoldNanos;
+	private final long totalInsertWaitNanos;
+	private final long maxInsertWaitNanos;
+	private final long fileSize;
+	private final long pageSize;
+	private final long pageCount;
+	private final long freePageCount;
+	private final long autoVacuum;
+
+	protected DatabaseStats(long lockAcquisitions, long totalLockHoldNanos,
+			long maxLockHoldNanos, long totalInsertWaitNanos,
+			long maxInsertWaitNanos, long fileSize, long pageSize,
+			long pageCount, long freePageCount, long autoVacuum) {
+		this.lockAcquisitions = lockAcquisitions;
+		this.totalLockHoldNanos = totalLockHoldNanos;
+		this.maxLockHoldNanos = maxLockHoldNanos;
+		this.totalInsertWaitNanos = totalInsertWaitNanos;
+		this.maxInsertWaitNanos = maxInsertWaitNanos;
+		this.fileSize = fileSize;
+		this.pageSize = pageSize;
+		this.pageCount = pageCount;
+		this.freePageCount = freePageCount;
+		this.autoVacuum = autoVacuum;
+	}
+
+	/**
+	 * @return number of times the database write lock has been taken
+	 */
+	public long getLockAcquisitions() {
+		return lockAcquisitions;
+	}
+
+	/**
+	 * @return total time the database write lock has been held, in
+	 *         nanoseconds
+	 */
+	public long getTotalLockHoldNanos() {
+		return totalLockHoldNanos;
+	}
+
+	/**
+	 * @return longest single hold of the database write lock, in nanoseconds
+	 */
+	public long getMaxLockHoldNanos() {
+		return maxLockHoldNanos;
+	}
+
+	/**
+	 * @return total time event inserts have waited for the database write
+	 *         lock, in nanoseconds
+	 */
+	public long getTotalInsertWaitNanos() {
+		return totalInsertWaitNanos;
+	}
+
+	/**
+	 * @return longest time a single event insert waited for the database
+	 *         write lock, in nanoseconds
+	 */
+	public long getMaxInsertWaitNanos() {
+		return maxInsertWaitNanos;
+	}
+
+	/**
+	 * @return size of the database file on disk, including any write-ahead
+	 *         log, in bytes
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * @return database page size in bytes
+	 */
+	public long getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return total number of pages in the database
+	 */
+	public long getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * @return number of unused pages waiting to be reclaimed
+	 */
+	public long getFreePageCount() {
+		return freePageCount;
+	}
+
+	/**
+	 * @return SQLite auto-vacuum mode: 0 (none), 1 (full) or 2 (incremental).
+	 *         Free pages are only reclaimed in incremental mode.
+	 */
+	public long getAutoVacuum() {
+		return autoVacuum;
+	}
+
+	@Override
+	public String toString() {
+		return "lock acquisitions: " + lockAcquisitions + ", total hold: "
+				+ totalLockHoldNanos + "ns, max hold: " + maxLockHoldNanos
+				+ "ns, total insert wait: " + totalInsertWaitNanos
+				+ "ns, max insert wait: " + maxInsertWaitNanos
+				+ "ns, file size: " + fileSize + " bytes, pages: " + pageCount
+				+ ", free pages: " + freePageCount + ", page size: "
+				+ pageSize + " bytes, auto-vacuum: " + autoVacuum;
+	}
+}
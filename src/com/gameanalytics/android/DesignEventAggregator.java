@@ -0,0 +1,222 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.HashMap;
+
+public class DesignEventAggregator {
+	// DESIGN EVENT AGGREGATION
+	// Design events for registered event ids are folded into a count, sum,
+	// min and max per (eventId, area) instead of being stored one by one.
+	// Every aggregation interval each (eventId, area) seen is sent as:
+	// - counters: one event with the sum as value (1 per event without one)
+	// - gauges: one event with the mean, plus eventId:Min, :Max and :Count
+	//
+	// Registered event ids are numbered and areas are interned in the
+	// EventDatabase symbol table, and the pair is packed into a long key.
+	// The aggregates are held in parallel primitive arrays indexed by an
+	// open-addressing table on that key, so folding an event doesn't
+	// allocate. Once the table is full further events are not folded and go
+	// through as normal.
+
+	protected static final int COUNTER = 1;
+	protected static final int GAUGE = 2;
+
+	private static final int CAPACITY_BITS = 8;
+	private static final int CAPACITY = 1 << CAPACITY_BITS;
+	private static final long EMPTY = -1;
+	private static final String MIN_SUFFIX = ":Min";
+	private static final String MAX_SUFFIX = ":Max";
+	private static final String COUNT_SUFFIX = ":Count";
+
+	// Registered event ids to their symbol, symbol to id and mode
+	private final HashMap<String, Integer> eventIdSymbols = new HashMap<String, Integer>();
+	private String[] eventIds = new String[8];
+	private int[] modes = new int[8];
+	private int eventIdCount;
+	// Registered ids are only read under the lock, but this lets events for
+	// unregistered ids skip it entirely while nothing is registered
+	private volatile boolean enabled;
+
+	private final long[] keys = new long[CAPACITY];
+	private final long[] counts = new long[CAPACITY];
+	private final double[] sums = new double[CAPACITY];
+	private final float[] mins = new float[CAPACITY];
+	private final float[] maxs = new float[CAPACITY];
+	private int size;
+
+	private final GameAnalyticsClient client;
+	private final SymbolTable symbols;
+
+	protected DesignEventAggregator(GameAnalyticsClient client,
+			SymbolTable symbols) {
+		this.client = client;
+		this.symbols = symbols;
+		for (int i = 0; i < CAPACITY; i++) {
+			keys[i] = EMPTY;
+		}
+	}
+
+	protected synchronized void register(String eventId, int mode) {
+		Integer symbol = eventIdSymbols.get(eventId);
+		if (symbol == null) {
+			if (eventIdCount == eventIds.length) {
+				String[] newEventIds = new String[eventIdCount * 2];
+				System.arraycopy(eventIds, 0, newEventIds, 0, eventIdCount);
+				eventIds = newEventIds;
+				int[] newModes = new int[eventIdCount * 2];
+				System.arraycopy(modes, 0, newModes, 0, eventIdCount);
+				modes = newModes;
+			}
+			symbol = eventIdCount++;
+			eventIds[symbol] = eventId;
+			eventIdSymbols.put(eventId, symbol);
+		}
+		modes[symbol] = mode;
+		enabled = true;
+	}
+
+	/**
+	 * @return true if the event was folded, false if it should be stored as
+	 *         normal
+	 */
+	protected boolean fold(String eventId, Float value, String area) {
+		if (!enabled) {
+			return false;
+		}
+		synchronized (this) {
+			Integer eventIdSymbol = eventIdSymbols.get(eventId);
+			if (eventIdSymbol == null) {
+				return false;
+			}
+			int areaSymbol = areaSymbol(area);
+			if (areaSymbol < 0) {
+				return false;
+			}
+			int slot = slot(((long) eventIdSymbol << 32) | areaSymbol);
+			if (slot < 0) {
+				return false;
+			}
+
+			float v = value != null ? value : 1;
+			if (counts[slot] == 0) {
+				mins[slot] = v;
+				maxs[slot] = v;
+			} else if (v < mins[slot]) {
+				mins[slot] = v;
+			} else if (v > maxs[slot]) {
+				maxs[slot] = v;
+			}
+			counts[slot]++;
+			sums[slot] += v;
+
+			client.scheduleAggregationFlush();
+			return true;
+		}
+	}
+
+	// Symbol plus one so that no area is 0, -1 if the symbol table is full
+	private int areaSymbol(String area) {
+		if (area == null) {
+			return 0;
+		}
+		int symbol = symbols.intern(area);
+		return symbol == SymbolTable.NONE ? -1 : symbol + 1;
+	}
+
+	// Linear probing, -1 if the key is new and the table is full
+	private int slot(long key) {
+		int i = (int) (key ^ (key >>> 32)) * 0x9E3779B9 >>> (32 - CAPACITY_BITS);
+		while (keys[i] != key) {
+			if (keys[i] == EMPTY) {
+				// Keep one slot free so probing always terminates
+				if (size == CAPACITY - 1) {
+					return -1;
+				}
+				keys[i] = key;
+				size++;
+				return i;
+			}
+			i = (i + 1) & (CAPACITY - 1);
+		}
+		return i;
+	}
+
+	/**
+	 * Sends everything folded since the last flush and starts a new window.
+	 */
+	protected void flush() {
+		String[] flushIds;
+		String[] flushAreas;
+		int[] flushModes;
+		long[] flushCounts;
+		double[] flushSums;
+		float[] flushMins;
+		float[] flushMaxs;
+		int n = 0;
+		// Copy out under the lock, send without it, sending an event can
+		// take a while
+		synchronized (this) {
+			flushIds = new String[size];
+			flushAreas = new String[size];
+			flushModes = new int[size];
+			flushCounts = new long[size];
+			flushSums = new double[size];
+			flushMins = new float[size];
+			flushMaxs = new float[size];
+			for (int i = 0; i < CAPACITY; i++) {
+				long key = keys[i];
+				if (key == EMPTY) {
+					continue;
+				}
+				int eventIdSymbol = (int) (key >>> 32);
+				flushIds[n] = eventIds[eventIdSymbol];
+				flushModes[n] = modes[eventIdSymbol];
+				flushAreas[n] = symbols.get((int) key - 1);
+				flushCounts[n] = counts[i];
+				flushSums[n] = sums[i];
+				flushMins[n] = mins[i];
+				flushMaxs[n] = maxs[i];
+				n++;
+				keys[i] = EMPTY;
+				counts[i] = 0;
+				sums[i] = 0;
+			}
+			size = 0;
+		}
+
+		for (int i = 0; i < n; i++) {
+			String eventId = flushIds[i];
+			String area = flushAreas[i];
+			if (flushModes[i] == COUNTER) {
+				client.addAggregatedDesignEvent(eventId,
+						(float) flushSums[i], area);
+			} else {
+				client.addAggregatedDesignEvent(eventId,
+						(float) (flushSums[i] / flushCounts[i]), area);
+				client.addAggregatedDesignEvent(eventId + MIN_SUFFIX,
+						flushMins[i], area);
+				client.addAggregatedDesignEvent(eventId + MAX_SUFFIX,
+						flushMaxs[i], area);
+				client.addAggregatedDesignEvent(eventId + COUNT_SUFFIX,
+						(float) flushCounts[i], area);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DesignEventSketches {
+	// DESIGN EVENT QUANTILES
+	// Values of design events with a registered id go into a QuantileSketch
+	// per event id instead of being stored. Every aggregation interval each
+	// sketch is sent as eventId:P50, :P90 and :P99 plus eventId:Count.
+	// Sketches span all areas and are created on registration, so adding a
+	// value only looks up the sketch and increments a bucket.
+
+	private static final int MAX_EVENT_IDS = 32;
+	private static final String[] SUFFIXES = { ":P50", ":P90", ":P99" };
+	private static final double[] PERCENTILES = { 50, 90, 99 };
+	private static final String COUNT_SUFFIX = ":Count";
+
+	private final ConcurrentHashMap<String, QuantileSketch> sketches = new ConcurrentHashMap<String, QuantileSketch>();
+	// Registration order, flush() walks these
+	private final ArrayList<String> eventIds = new ArrayList<String>();
+
+	private final GameAnalyticsClient client;
+
+	// Only used while flushing, flushes never overlap
+	private final long[] flushCounts = new long[QuantileSketch.SIZE];
+
+	protected DesignEventSketches(GameAnalyticsClient client) {
+		this.client = client;
+	}
+
+	protected synchronized void register(String eventId) {
+		if (sketches.containsKey(eventId)) {
+			return;
+		}
+		if (eventIds.size() == MAX_EVENT_IDS) {
+			GALog.w("Warning: too many quantile event ids, " + eventId
+					+ " will be sent as normal. The maximum is "
+					+ MAX_EVENT_IDS + ".");
+			return;
+		}
+		eventIds.add(eventId);
+		sketches.put(eventId, new QuantileSketch());
+	}
+
+	/**
+	 * @return true if the value was added to a sketch, false if the event
+	 *         should be stored as normal
+	 */
+	protected boolean add(String eventId, Float value) {
+		if (value == null || sketches.isEmpty()) {
+			return false;
+		}
+		QuantileSketch sketch = sketches.get(eventId);
+		if (sketch == null) {
+			return false;
+		}
+		if (!sketch.add(value)) {
+			GALog.w("Warning: ignoring " + value + " value for design event "
+					+ eventId + ", quantiles need a finite value.");
+			return true;
+		}
+		client.scheduleAggregationFlush();
+		return true;
+	}
+
+	/**
+	 * Sends the percentiles of every sketch with values since the last flush
+	 * and empties them.
+	 */
+	protected synchronized void flush() {
+		for (int i = 0; i < eventIds.size(); i++) {
+			String eventId = eventIds.get(i);
+			long total = sketches.get(eventId).drain(flushCounts);
+			if (total == 0) {
+				continue;
+			}
+			for (int j = 0; j < PERCENTILES.length; j++) {
+				client.addAggregatedDesignEvent(eventId + SUFFIXES[j],
+						QuantileSketch.percentile(flushCounts, total,
+								PERCENTILES[j]), null);
+			}
+			client.addAggregatedDesignEvent(eventId + COUNT_SUFFIX,
+					(float) total, null);
+		}
+	}
+}
@@ -33,6 +33,9 @@ public class ErrorEvent {
 	private String message;
 	private String severity;
 
+	// Large messages are stored separately and loaded just before sending
+	private transient boolean messageStored;
+
 	public ErrorEvent(String user_id, String session_id, String build,
 			String area, Float x, Float y, Float z, String message,
 			String severity) {
@@ -46,4 +49,17 @@ public class ErrorEvent {
 		this.message = message;
 		this.severity = severity;
 	}
+
+	protected void setMessageStored(boolean messageStored) {
+		this.messageStored = messageStored;
+	}
+
+	protected boolean isMessageStored() {
+		return messageStored;
+	}
+
+	protected void setMessage(String message) {
+		this.message = message;
+		this.messageStored = false;
+	}
 }
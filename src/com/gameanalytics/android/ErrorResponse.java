@@ -18,9 +18,71 @@
 
 package com.gameanalytics.android;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 public class ErrorResponse {
 	// JSON class for pulling out the error code and message from the server
 	// response.
 	String message;
 	int code;
+
+	// Reads at most maxLength characters of an error body. If it isn't JSON
+	// the raw text is kept as the message so it can still be logged. Returns
+	// null for an empty body.
+	protected static ErrorResponse fromBody(Reader body, int maxLength)
+			throws IOException {
+		char[] buffer = new char[maxLength];
+		int length = 0;
+		int read;
+		while (length < maxLength
+				&& (read = body.read(buffer, length, maxLength - length)) != -1) {
+			length += read;
+		}
+		if (length == 0) {
+			return null;
+		}
+		String content = new String(buffer, 0, length);
+		ErrorResponse errorResponse = fromJson(new StringReader(content));
+		if (errorResponse == null) {
+			// New codes for error response:
+			errorResponse = new ErrorResponse();
+			errorResponse.message = content;
+		}
+		return errorResponse;
+	}
+
+	// Reads the code and message from a JSON error body as it streams in,
+	// skipping anything else. Returns null if the body isn't a JSON object.
+	protected static ErrorResponse fromJson(Reader body) {
+		ErrorResponse errorResponse = new ErrorResponse();
+		errorResponse.message = "";
+		JsonReader reader = new JsonReader(body);
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				JsonToken token = reader.peek();
+				if (name.equals("code") && token == JsonToken.NUMBER) {
+					errorResponse.code = reader.nextInt();
+				} else if (name.equals("message") && token == JsonToken.STRING) {
+					errorResponse.message = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			return errorResponse;
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalStateException e) {
+			// Not an object, or code is not an int
+			return null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
 }
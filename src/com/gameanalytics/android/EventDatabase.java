@@ -18,25 +18,85 @@
 
 package com.gameanalytics.android;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 public class EventDatabase {
 
-	private static DBOpenHelper dbHelper;
+	// Each GameAnalyticsClient has its own EventDatabase, stored in its own
+	// file, with its own lock and insert thread.
+	private final String name;
+	private volatile DBOpenHelper dbHelper;
+	private DatabaseProfile profile = GameAnalytics.SAFE_DATABASE_PROFILE;
+	private final SymbolTable symbols = new SymbolTable();
+	private volatile int maximumEventStorage = 0; // Default is 0 (unlimited)
+	private volatile int maximumMessageLength = 64 * 1024; // Characters
+
+	// Inserts are queued and run one at a time on a background thread, so the
+	// caller never waits on the lock. The thread stops when idle.
+	private final ThreadPoolExecutor insertExecutor;
+
+	// Lock statistics, only modified while holding the EventDatabase lock
+	private long lockAcquisitions;
+	private long totalLockHoldNanos;
+	private long maxLockHoldNanos;
+	private long totalInsertWaitNanos;
+	private long maxInsertWaitNanos;
+
+	/**
+	 * @param name
+	 *            name of the client the database belongs to, or null for the
+	 *            default client
+	 */
+	protected EventDatabase(String name) {
+		this.name = name;
+		insertExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			insertExecutor.allowCoreThreadTimeOut(true);
+		}
+	}
 
-	private static DBOpenHelper getDBHelper(Context context){
-		if (dbHelper == null) {
-			dbHelper = new DBOpenHelper(context);
+	private DBOpenHelper getDBHelper(Context context){
+		// getEvents() calls this without holding the EventDatabase lock
+		DBOpenHelper helper = dbHelper;
+		if (helper == null) {
+			synchronized (this) {
+				helper = dbHelper;
+				if (helper == null) {
+					helper = new DBOpenHelper(context, name, profile, symbols);
+					dbHelper = helper;
+				}
+			}
 		}
-		return dbHelper;
+		return helper;
 	}
 	
-	protected static void initialise(Context context){
+	protected void initialise(Context context, DatabaseProfile databaseProfile){
+		if (databaseProfile == null) {
+			databaseProfile = GameAnalytics.SAFE_DATABASE_PROFILE;
+		}
+		if (dbHelper == null) {
+			profile = databaseProfile;
+		} else if (profile != databaseProfile) {
+			GALog.w("Warning: database already open, ignoring " + databaseProfile + " database profile.");
+		}
 		getDBHelper(context).getWritableDatabase();
 	}
 	
@@ -58,7 +118,6 @@ public class EventDatabase {
 	protected final static String X = "x";
 	protected final static String Y = "y";
 	protected final static String Z = "z";
-	private static int MAXIMUM_EVENT_STORAGE = 0; // Default is 0 (unlimited)
 
 	// Design
 	protected final static String VALUE = "value";
@@ -93,6 +152,37 @@ public class EventDatabase {
 	protected final static String MESSAGE = "message";
 	protected final static String SEVERITY = "severity";
 
+	// Number of chunks a large message is stored in, added in V1.15. Null when
+	// the message is stored inline in the message column.
+	protected final static String MESSAGE_CHUNKS = "message_chunks";
+
+	// Symbol ids, added in V1.16. Used instead of the text columns above
+	// for strings that are in the symbol table, see SymbolTable.
+	protected final static String GAME_KEY_SYMBOL = "game_key_sym";
+	protected final static String SECRET_KEY_SYMBOL = "secret_key_sym";
+	protected final static String USER_ID_SYMBOL = "user_id_sym";
+	protected final static String SESSION_ID_SYMBOL = "session_id_sym";
+	protected final static String BUILD_SYMBOL = "build_sym";
+	protected final static String EVENT_ID_SYMBOL = "event_id_sym";
+	protected final static String AREA_SYMBOL = "area_sym";
+	protected final static String[] SYMBOL_COLUMNS = { GAME_KEY_SYMBOL,
+			SECRET_KEY_SYMBOL, USER_ID_SYMBOL, SESSION_ID_SYMBOL, BUILD_SYMBOL,
+			EVENT_ID_SYMBOL, AREA_SYMBOL };
+
+	// Large message storage
+	protected final static String MESSAGE_TABLENAME = "event_messages";
+	protected final static String MESSAGE_ROW_ID = "row_id";
+	protected final static String MESSAGE_SEQ = "seq";
+	protected final static String MESSAGE_DATA = "data";
+	private final static int INLINE_MESSAGE_LENGTH = 4096; // Characters
+	private final static int MESSAGE_CHUNK_SIZE = 32 * 1024; // Bytes
+	private final static String TRUNCATED_MESSAGE = "...[truncated]";
+
+	// Page reclamation
+	private final static long AUTO_VACUUM_INCREMENTAL = 2;
+	private final static long VACUUM_MINIMUM_FREE_PAGES = 16;
+	private final static int VACUUM_MAXIMUM_PAGES = 64;
+
 	protected final static String CREATE_TABLE = "create table " + TABLENAME
 			+ " (" + ROW_ID + " integer primary key autoincrement not null,"
 			+ TYPE + " text," + USER_ID + " text," + SESSION_ID + " text,"
@@ -106,16 +196,40 @@ public class EventDatabase {
 			+ INSTALL_ADGROUP + " text," + INSTALL_AD + " text,"
 			+ INSTALL_KEYWORD + " text," + GAME_KEY + " text," + SECRET_KEY
 			+ " text," + ANDROID_ID + " text," + SEVERITY + " text,"
-			+ GOOGLE_AID + " text" + ");";
-
-	// Database operations (SYNCHRONIZED)
-	// The following methods are synchronized so that extra events won't be
-	// added to the database while the current lot are being pulled out and
-	// sent.
-	synchronized static protected Object[] getEvents(Context context) {
-		// Get all events
-		Cursor cursor = getDBHelper(context).getWritableDatabase().query(TABLENAME, null, USER_ID + " is not null",
-				null, null, null, ROW_ID);
+			+ GOOGLE_AID + " text," + MESSAGE_CHUNKS + " num,"
+			+ GAME_KEY_SYMBOL + " integer," + SECRET_KEY_SYMBOL + " integer,"
+			+ USER_ID_SYMBOL + " integer," + SESSION_ID_SYMBOL + " integer,"
+			+ BUILD_SYMBOL + " integer," + EVENT_ID_SYMBOL + " integer,"
+			+ AREA_SYMBOL + " integer" + ");";
+
+	// Events with a user id, stored either way
+	private final static String HAS_USER_ID = "(" + USER_ID
+			+ " is not null OR " + USER_ID_SYMBOL + " is not null)";
+
+	protected final static String CREATE_MESSAGE_TABLE = "create table "
+			+ MESSAGE_TABLENAME + " (" + MESSAGE_ROW_ID + " integer not null,"
+			+ MESSAGE_SEQ + " integer not null," + MESSAGE_DATA + " blob,"
+			+ "primary key (" + MESSAGE_ROW_ID + "," + MESSAGE_SEQ + "));";
+
+	// Removes the chunks of a large message whenever its event is deleted
+	protected final static String CREATE_MESSAGE_TRIGGER = "create trigger "
+			+ MESSAGE_TABLENAME + "_delete after delete on " + TABLENAME
+			+ " when old." + MESSAGE_CHUNKS + " is not null begin delete from "
+			+ MESSAGE_TABLENAME + " where " + MESSAGE_ROW_ID + " = old."
+			+ ROW_ID + "; end;";
+
+	// Reading events is NOT synchronized. A row id watermark is taken when the
+	// flush starts and only rows at or below it are read, so new events can
+	// keep being inserted while the current lot are pulled out and decoded.
+	// Sent events are deleted by row id, so anything inserted after the
+	// watermark is left for the next batch.
+	protected Object[] getEvents(Context context) {
+		SQLiteDatabase db = getDBHelper(context).getWritableDatabase();
+		long watermark = getMaxRowId(db);
+
+		// Get all events up to the watermark
+		Cursor cursor = db.query(TABLENAME, null, HAS_USER_ID + " AND "
+				+ ROW_ID + " <= " + watermark, null, null, null, ROW_ID);
 
 		// Create Hashmaps of event arrays to support multiple game ids
 		HashMap<String, EventList<DesignEvent>> designEvents = new HashMap<String, EventList<DesignEvent>>();
@@ -125,7 +239,7 @@ public class EventDatabase {
 		HashMap<String, EventList<ErrorEvent>> errorEvents = new HashMap<String, EventList<ErrorEvent>>();
 
 		// Columns
-		int rowId;
+		long rowId;
 		String type;
 		String userId;
 		String sessionId;
@@ -162,12 +276,12 @@ public class EventDatabase {
 		// Populate ArrayLists
 		if (cursor.moveToFirst()) {
 			while (!cursor.isAfterLast()) {
-				rowId = cursor.getInt(0);
+				rowId = cursor.getLong(0);
 				type = cursor.getString(1);
-				userId = cursor.getString(2);
-				sessionId = cursor.getString(3);
-				build = cursor.getString(4);
-				area = cursor.getString(6);
+				userId = getString(cursor, 2, 36);
+				sessionId = getString(cursor, 3, 37);
+				build = getString(cursor, 4, 38);
+				area = getString(cursor, 6, 40);
 				String xString = cursor.getString(7);
 				if (xString != null) {
 					x = Float.valueOf(xString);
@@ -183,8 +297,8 @@ public class EventDatabase {
 
 				// By saving gameId for every event we support the game id
 				// changing between app versions
-				gameKey = cursor.getString(28);
-				secretKey = cursor.getString(29);
+				gameKey = getString(cursor, 28, 34);
+				secretKey = getString(cursor, 29, 35);
 
 				// For backward compatibility, is gameKey null?
 				if (gameKey == null) {
@@ -197,7 +311,7 @@ public class EventDatabase {
 						designEvents.put(gameKey, new EventList<DesignEvent>(
 								secretKey));
 					}
-					eventId = cursor.getString(5);
+					eventId = getString(cursor, 5, 39);
 					String valueString = cursor.getString(10);
 					if (valueString != null) {
 						value = Float.valueOf(valueString);
@@ -211,7 +325,7 @@ public class EventDatabase {
 						businessEvents.put(gameKey,
 								new EventList<BusinessEvent>(secretKey));
 					}
-					eventId = cursor.getString(5);
+					eventId = getString(cursor, 5, 39);
 					currency = cursor.getString(11);
 					amount = cursor.getInt(12);
 					businessEvents.get(gameKey).addEvent(
@@ -263,11 +377,13 @@ public class EventDatabase {
 						qualityEvents.put(gameKey, new EventList<QualityEvent>(
 								secretKey));
 					}
-					eventId = cursor.getString(5);
+					eventId = getString(cursor, 5, 39);
 					message = cursor.getString(16);
-					qualityEvents.get(gameKey).addEvent(
-							new QualityEvent(userId, sessionId, build, eventId,
-									area, x, y, z, message), rowId);
+					QualityEvent qualityEvent = new QualityEvent(userId,
+							sessionId, build, eventId, area, x, y, z, message);
+					// Large messages are loaded when the events are sent
+					qualityEvent.setMessageStored(!cursor.isNull(33));
+					qualityEvents.get(gameKey).addEvent(qualityEvent, rowId);
 				} else if (type.equals(GameAnalytics.ERROR)) {
 					// Create new arraylist if first event with this game id
 					if (errorEvents.get(gameKey) == null) {
@@ -276,9 +392,11 @@ public class EventDatabase {
 					}
 					message = cursor.getString(16);
 					severity = cursor.getString(31);
-					errorEvents.get(gameKey).addEvent(
-							new ErrorEvent(userId, sessionId, build, area, x,
-									y, z, message, severity), rowId);
+					ErrorEvent errorEvent = new ErrorEvent(userId, sessionId,
+							build, area, x, y, z, message, severity);
+					// Large messages are loaded when the events are sent
+					errorEvent.setMessageStored(!cursor.isNull(33));
+					errorEvents.get(gameKey).addEvent(errorEvent, rowId);
 				}
 				cursor.moveToNext();
 			}
@@ -290,77 +408,329 @@ public class EventDatabase {
 				qualityEvents, errorEvents };
 	}
 
-	synchronized static private void insert(ContentValues values, Context context) {
-		if (MAXIMUM_EVENT_STORAGE == 0 || !isFull(context)) {
-			getDBHelper(context).getWritableDatabase().insert(TABLENAME, null, values);
-		} else {
-			GALog.i("Event not added to database, database is full.");
+	// Value of a string column, or of the symbol column next to it when the
+	// string was stored as a symbol
+	private String getString(Cursor cursor, int column,
+			int symbolColumn) {
+		if (cursor.isNull(symbolColumn)) {
+			return cursor.getString(column);
 		}
+		return symbols.get(cursor.getInt(symbolColumn));
 	}
 
-	private static boolean isFull(Context context) {
-		boolean isFull;
-		Cursor cursor = getDBHelper(context).getWritableDatabase().query(TABLENAME, new String[] { ROW_ID }, null,
-				null, null, null, null);
-		if (cursor.getCount() >= MAXIMUM_EVENT_STORAGE) {
-			isFull = true;
+	// Stores value as a symbol id if it is in the symbol table, as text if
+	// not
+	private void putString(ContentValues values, String column,
+			String symbolColumn, String value) {
+		int symbol = symbols.intern(value);
+		if (symbol == SymbolTable.NONE) {
+			values.put(column, value);
 		} else {
-			isFull = false;
+			values.put(symbolColumn, symbol);
+		}
+	}
+
+	// Puts the strings common to all events
+	private void putCommon(ContentValues values, String type,
+			String gameKey, String secretKey, String userId,
+			String sessionId, String build, String area) {
+		putString(values, GAME_KEY, GAME_KEY_SYMBOL, gameKey);
+		putString(values, SECRET_KEY, SECRET_KEY_SYMBOL, secretKey);
+		values.put(TYPE, type);
+		putString(values, USER_ID, USER_ID_SYMBOL, userId);
+		putString(values, SESSION_ID, SESSION_ID_SYMBOL, sessionId);
+		putString(values, BUILD, BUILD_SYMBOL, build);
+		putString(values, AREA, AREA_SYMBOL, area);
+	}
+
+	private static long getMaxRowId(SQLiteDatabase db) {
+		return longForQuery(db, "SELECT IFNULL(MAX(" + ROW_ID + "), 0) FROM "
+				+ TABLENAME);
+	}
+
+	private static long longForQuery(SQLiteDatabase db, String sql) {
+		SQLiteStatement statement = db.compileStatement(sql);
+		try {
+			return statement.simpleQueryForLong();
+		} finally {
+			statement.close();
+		}
+	}
+
+	// Database write operations (SYNCHRONIZED)
+	// The following methods are synchronized so that the maximum event storage
+	// check and the insert happen atomically, and so that deletes and updates
+	// don't interleave. Keep the work done inside them small, every event
+	// insert waits on this lock.
+	private void insert(ContentValues values, Context context) {
+		insert(values, null, context);
+	}
+
+	private void insert(ContentValues values,
+			ArrayList<byte[]> messageChunks, Context context) {
+		long waitStart = System.nanoTime();
+		synchronized (this) {
+			long start = System.nanoTime();
+			long wait = start - waitStart;
+			totalInsertWaitNanos += wait;
+			if (wait > maxInsertWaitNanos) {
+				maxInsertWaitNanos = wait;
+			}
+			try {
+				SQLiteDatabase db = getDBHelper(context).getWritableDatabase();
+				if (maximumEventStorage == 0 || !isFull(db)) {
+					symbols.persist(db);
+					if (messageChunks == null) {
+						db.insert(TABLENAME, null, values);
+					} else {
+						insertWithMessageChunks(db, values, messageChunks);
+					}
+				} else {
+					GALog.i("Event not added to database, database is full.");
+				}
+			} finally {
+				lockReleased(start);
+			}
 		}
-		cursor.close();
-		return isFull;
 	}
 
-	synchronized static protected void deleteSentEvents(
-			ArrayList<Integer> eventsToDelete, String category, Context context) {
-		GALog.i("Deleting " + eventsToDelete.size() + " " + category
-				+ " events");
-		String idList = "(";
-		for (Integer i : eventsToDelete) {
-			if (!idList.equals("(")) {
-				idList += ",";
+	private static void insertWithMessageChunks(SQLiteDatabase db,
+			ContentValues values, ArrayList<byte[]> messageChunks) {
+		values.put(MESSAGE_CHUNKS, messageChunks.size());
+		db.beginTransaction();
+		try {
+			long rowId = db.insert(TABLENAME, null, values);
+			if (rowId != -1) {
+				ContentValues chunkValues = new ContentValues();
+				for (int i = 0; i < messageChunks.size(); i++) {
+					chunkValues.put(MESSAGE_ROW_ID, rowId);
+					chunkValues.put(MESSAGE_SEQ, i);
+					chunkValues.put(MESSAGE_DATA, messageChunks.get(i));
+					db.insert(MESSAGE_TABLENAME, null, chunkValues);
+				}
+				db.setTransactionSuccessful();
 			}
-			idList = idList + i;
+		} finally {
+			db.endTransaction();
 		}
-		idList += ")";
+	}
 
-		getDBHelper(context).getWritableDatabase().delete(TABLENAME, "_id IN " + idList, null);
+	private boolean isFull(SQLiteDatabase db) {
+		return longForQuery(db, "SELECT COUNT(*) FROM " + TABLENAME) >= maximumEventStorage;
 	}
 
-	synchronized static protected void deleteEventsWithoutUserId(Context context) {
-		GALog.i("Deleting events without user id, respecting user preference to disabled tracking.");
-		getDBHelper(context).getWritableDatabase().delete(TABLENAME, USER_ID + " is null", null);
+	synchronized protected void deleteSentEvents(
+			EventIdList eventsToDelete, String category, Context context) {
+		long start = System.nanoTime();
+		try {
+			GALog.i("Deleting " + eventsToDelete.size() + " " + category
+					+ " events");
+			getDBHelper(context).getWritableDatabase().delete(TABLENAME,
+					eventsToDelete.toWhereClause(ROW_ID), null);
+		} finally {
+			lockReleased(start);
+		}
 	}
 
-	synchronized static protected void clear(Context context) {
-		getDBHelper(context).getWritableDatabase().delete(TABLENAME, null, null);
+	synchronized protected void deleteEventsWithoutUserId(Context context) {
+		long start = System.nanoTime();
+		try {
+			GALog.i("Deleting events without user id, respecting user preference to disabled tracking.");
+			getDBHelper(context).getWritableDatabase().delete(TABLENAME,
+					"NOT " + HAS_USER_ID, null);
+		} finally {
+			lockReleased(start);
+		}
+	}
+
+	synchronized protected void clear(Context context) {
+		long start = System.nanoTime();
+		try {
+			SQLiteDatabase db = getDBHelper(context).getWritableDatabase();
+			db.delete(TABLENAME, null, null);
+			// Catch any orphaned chunks
+			db.delete(MESSAGE_TABLENAME, null, null);
+		} finally {
+			lockReleased(start);
+		}
 	}
 
 	// This method is and should only called from background thread from
 	// GetGoogleAIDAsync.
-	synchronized static protected void populateEventsWithNoUserId(String userId,
+	synchronized protected void populateEventsWithNoUserId(String userId,
 			String googleAID, Context context) {
-		ContentValues values = new ContentValues();
-		values.put(USER_ID, userId);
-		values.put(GOOGLE_AID, googleAID);
-		int updated = getDBHelper(context).getWritableDatabase().update(TABLENAME, values, USER_ID + " is null", null);
-		GALog.i(updated + " events populated with new user_id.");
+		long start = System.nanoTime();
+		try {
+			SQLiteDatabase db = getDBHelper(context).getWritableDatabase();
+			ContentValues values = new ContentValues();
+			putString(values, USER_ID, USER_ID_SYMBOL, userId);
+			values.put(GOOGLE_AID, googleAID);
+			symbols.persist(db);
+			int updated = db.update(TABLENAME, values, "NOT " + HAS_USER_ID,
+					null);
+			GALog.i(updated + " events populated with new user_id.");
+		} finally {
+			lockReleased(start);
+		}
+	}
+
+	// Must be called while holding the EventDatabase lock
+	private void lockReleased(long start) {
+		long held = System.nanoTime() - start;
+		lockAcquisitions++;
+		totalLockHoldNanos += held;
+		if (held > maxLockHoldNanos) {
+			maxLockHoldNanos = held;
+		}
+	}
+
+	// The events table is filled and emptied on every batch. With incremental
+	// auto-vacuum SQLite keeps the freed pages on a free list which is
+	// trimmed here a few pages at a time. Called from the BatchThread before
+	// it starts sending, once the client has no responses outstanding. Each
+	// call is kept small because inserts wait on the lock while it runs.
+	synchronized protected void reclaimFreePages(Context context) {
+		long start = System.nanoTime();
+		try {
+			SQLiteDatabase db = getDBHelper(context).getWritableDatabase();
+			// DBOpenHelper switches the mode when the database is created
+			// or upgraded. Nothing to trim if that failed.
+			if (longForQuery(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+				return;
+			}
+			long freePages = longForQuery(db, "PRAGMA freelist_count");
+			if (freePages > VACUUM_MINIMUM_FREE_PAGES) {
+				GALog.i("Reclaiming free database pages, " + freePages
+						+ " free.");
+				// Bounded so the lock is only held briefly. Run as a query
+				// because execSQL() only steps the statement once, which
+				// frees a single page.
+				Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum("
+						+ VACUUM_MAXIMUM_PAGES + ")", null);
+				try {
+					cursor.moveToFirst();
+				} finally {
+					cursor.close();
+				}
+			}
+		} finally {
+			lockReleased(start);
+		}
+	}
+
+	synchronized protected DatabaseStats getStats(Context context) {
+		SQLiteDatabase db = getDBHelper(context).getWritableDatabase();
+		long pageSize = longForQuery(db, "PRAGMA page_size");
+		long pageCount = longForQuery(db, "PRAGMA page_count");
+		long freePageCount = longForQuery(db, "PRAGMA freelist_count");
+		long autoVacuum = longForQuery(db, "PRAGMA auto_vacuum");
+		long fileSize = 0;
+		if (db.getPath() != null) {
+			fileSize = new File(db.getPath()).length()
+					+ new File(db.getPath() + "-wal").length();
+		}
+		return new DatabaseStats(lockAcquisitions, totalLockHoldNanos,
+				maxLockHoldNanos, totalInsertWaitNanos, maxInsertWaitNanos,
+				fileSize, pageSize, pageCount, freePageCount, autoVacuum);
 	}
 
 	// END OF SYNCHRONISED EVENTS
 
-	protected static void addDesignEvent(String gameKey, String secretKey,
+	// Loads and decompresses a large message chunk by chunk. Called from the
+	// BatchThread just before the event is converted to JSON so that large
+	// messages are never held in the main events cursor.
+	protected String loadStoredMessage(long rowId, Context context) {
+		Cursor cursor = getDBHelper(context).getWritableDatabase().query(
+				MESSAGE_TABLENAME, new String[] { MESSAGE_DATA },
+				MESSAGE_ROW_ID + " = " + rowId, null, null, null, MESSAGE_SEQ);
+		Inflater inflater = new Inflater();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[MESSAGE_CHUNK_SIZE];
+			int length;
+			while (cursor.moveToNext()) {
+				inflater.setInput(cursor.getBlob(0));
+				while ((length = inflater.inflate(buffer)) > 0) {
+					out.write(buffer, 0, length);
+				}
+			}
+			return out.toString("UTF-8");
+		} catch (DataFormatException e) {
+			GALog.e("Error decompressing stored message: " + e.toString(), e);
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			GALog.e("Error decoding stored message: " + e.toString(), e);
+			return null;
+		} finally {
+			inflater.end();
+			cursor.close();
+		}
+	}
+
+	// Compresses a message into chunks small enough to read through a single
+	// CursorWindow. Returns null if the message should be stored inline.
+	private static ArrayList<byte[]> compressMessage(String message) {
+		if (message == null || message.length() <= INLINE_MESSAGE_LENGTH) {
+			return null;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(message.getBytes("UTF-8"));
+			deflater.finish();
+			ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+			byte[] buffer = new byte[MESSAGE_CHUNK_SIZE];
+			int length = 0;
+			while (!deflater.finished()) {
+				length += deflater.deflate(buffer, length, buffer.length
+						- length);
+				if (length == buffer.length || deflater.finished()) {
+					byte[] chunk = new byte[length];
+					System.arraycopy(buffer, 0, chunk, 0, length);
+					chunks.add(chunk);
+					length = 0;
+				}
+			}
+			return chunks;
+		} catch (UnsupportedEncodingException e) {
+			GALog.e("Error encoding message, storing inline: " + e.toString(),
+					e);
+			return null;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private String truncateMessage(String message) {
+		if (message != null && maximumMessageLength > 0
+				&& message.length() > maximumMessageLength) {
+			int limit = maximumMessageLength;
+			// Don't split a surrogate pair
+			if (Character.isHighSurrogate(message.charAt(limit - 1))) {
+				limit--;
+			}
+			return message.substring(0, limit) + TRUNCATED_MESSAGE;
+		}
+		return message;
+	}
+
+	// Stores the message inline or in chunks, then inserts the event. Runs on
+	// the insert thread so compression doesn't hold up the caller.
+	private void insertWithMessage(ContentValues values,
+			String message, Context context) {
+		ArrayList<byte[]> messageChunks = compressMessage(message);
+		if (messageChunks == null) {
+			values.put(MESSAGE, message);
+		}
+		insert(values, messageChunks, context);
+	}
+
+	protected void addDesignEvent(String gameKey, String secretKey,
 			String userId, String sessionId, String build, String eventId,
 			String area, Float x, Float y, Float z, Float value, final Context context) {
 		final ContentValues values = new ContentValues();
-		values.put(GAME_KEY, gameKey);
-		values.put(SECRET_KEY, secretKey);
-		values.put(TYPE, GameAnalytics.DESIGN);
-		values.put(USER_ID, userId);
-		values.put(SESSION_ID, sessionId);
-		values.put(BUILD, build);
-		values.put(EVENT_ID, eventId);
-		values.put(AREA, area);
+		putCommon(values, GameAnalytics.DESIGN, gameKey, secretKey, userId,
+				sessionId, build, area);
+		putString(values, EVENT_ID, EVENT_ID_SYMBOL, eventId);
 		// Position parameters are optional
 		if (x != null) {
 			values.put(X, x);
@@ -375,27 +745,22 @@ public class EventDatabase {
 		if (value != null) {
 			values.put(VALUE, value);
 		}
-		// Do insert on seperate thread so that if synchronization locks up the
-		// method, main thread can return.
-		new Thread() {
+		// Do insert on the insert thread so that if synchronization locks up
+		// the method, main thread can return.
+		insertExecutor.execute(new Runnable() {
 			public void run() {
-				insert(values,context);
+				insert(values, context);
 			}
-		}.start();
+		});
 	}
 
-	protected static void addBusinessEvent(String gameKey, String secretKey,
+	protected void addBusinessEvent(String gameKey, String secretKey,
 			String userId, String sessionId, String build, String eventId,
 			String area, Float x, Float y, Float z, String currency, int amount, final Context context) {
 		final ContentValues values = new ContentValues();
-		values.put(GAME_KEY, gameKey);
-		values.put(SECRET_KEY, secretKey);
-		values.put(TYPE, GameAnalytics.BUSINESS);
-		values.put(USER_ID, userId);
-		values.put(SESSION_ID, sessionId);
-		values.put(BUILD, build);
-		values.put(EVENT_ID, eventId);
-		values.put(AREA, area);
+		putCommon(values, GameAnalytics.BUSINESS, gameKey, secretKey, userId,
+				sessionId, build, area);
+		putString(values, EVENT_ID, EVENT_ID_SYMBOL, eventId);
 		// Position parameters are optional
 		if (x != null) {
 			values.put(X, x);
@@ -408,16 +773,16 @@ public class EventDatabase {
 		}
 		values.put(CURRENCY, currency);
 		values.put(AMOUNT, amount);
-		// Do insert on seperate thread so that if synchronization locks up the
-		// method, main thread can return.
-		new Thread() {
+		// Do insert on the insert thread so that if synchronization locks up
+		// the method, main thread can return.
+		insertExecutor.execute(new Runnable() {
 			public void run() {
-				insert(values,context);
+				insert(values, context);
 			}
-		}.start();
+		});
 	}
 
-	protected static void addUserEvent(String gameKey, String secretKey,
+	protected void addUserEvent(String gameKey, String secretKey,
 			String userId, String sessionId, String build, String area,
 			Float x, Float y, Float z, Character gender, Integer birthYear,
 			Integer friendCount, String platform, String device,
@@ -426,13 +791,8 @@ public class EventDatabase {
 			String installCampaign, String installAdgroup, String installAd,
 			String installKeyword, String androidId, String googleAID, final Context context) {
 		final ContentValues values = new ContentValues();
-		values.put(GAME_KEY, gameKey);
-		values.put(SECRET_KEY, secretKey);
-		values.put(TYPE, GameAnalytics.USER);
-		values.put(USER_ID, userId);
-		values.put(SESSION_ID, sessionId);
-		values.put(BUILD, build);
-		values.put(AREA, area);
+		putCommon(values, GameAnalytics.USER, gameKey, secretKey, userId,
+				sessionId, build, area);
 		// Position parameters are optional
 		if (x != null) {
 			values.put(X, x);
@@ -466,27 +826,22 @@ public class EventDatabase {
 		values.put(INSTALL_KEYWORD, installKeyword);
 		values.put(ANDROID_ID, androidId);
 		values.put(GOOGLE_AID, googleAID);
-		// Do insert on seperate thread so that if synchronization locks up the
-		// method, main thread can return.
-		new Thread() {
+		// Do insert on the insert thread so that if synchronization locks up
+		// the method, main thread can return.
+		insertExecutor.execute(new Runnable() {
 			public void run() {
-				insert(values,context);
+				insert(values, context);
 			}
-		}.start();
+		});
 	}
 
-	protected static void addQualityEvent(String gameKey, String secretKey,
+	protected void addQualityEvent(String gameKey, String secretKey,
 			String userId, String sessionId, String build, String eventId,
 			String area, Float x, Float y, Float z, String message, final Context context) {
 		final ContentValues values = new ContentValues();
-		values.put(GAME_KEY, gameKey);
-		values.put(SECRET_KEY, secretKey);
-		values.put(TYPE, GameAnalytics.QUALITY);
-		values.put(USER_ID, userId);
-		values.put(SESSION_ID, sessionId);
-		values.put(BUILD, build);
-		values.put(EVENT_ID, eventId);
-		values.put(AREA, area);
+		putCommon(values, GameAnalytics.QUALITY, gameKey, secretKey, userId,
+				sessionId, build, area);
+		putString(values, EVENT_ID, EVENT_ID_SYMBOL, eventId);
 		// Position parameters are optional
 		if (x != null) {
 			values.put(X, x);
@@ -497,27 +852,22 @@ public class EventDatabase {
 		if (z != null) {
 			values.put(Z, z);
 		}
-		values.put(MESSAGE, message);
-		// Do insert on seperate thread so that if synchronization locks up the
-		// method, main thread can return.
-		new Thread() {
+		final String truncatedMessage = truncateMessage(message);
+		// Do insert on the insert thread so that if synchronization locks up
+		// the method, main thread can return.
+		insertExecutor.execute(new Runnable() {
 			public void run() {
-				insert(values,context);
+				insertWithMessage(values, truncatedMessage, context);
 			}
-		}.start();
+		});
 	}
 
-	protected static void addErrorEvent(String gameKey, String secretKey,
+	protected void addErrorEvent(String gameKey, String secretKey,
 			String userId, String sessionId, String build, String area,
 			Float x, Float y, Float z, String message, String severity, final Context context) {
 		final ContentValues values = new ContentValues();
-		values.put(GAME_KEY, gameKey);
-		values.put(SECRET_KEY, secretKey);
-		values.put(TYPE, GameAnalytics.ERROR);
-		values.put(USER_ID, userId);
-		values.put(SESSION_ID, sessionId);
-		values.put(BUILD, build);
-		values.put(AREA, area);
+		putCommon(values, GameAnalytics.ERROR, gameKey, secretKey, userId,
+				sessionId, build, area);
 		// Position parameters are optional
 		if (x != null) {
 			values.put(X, x);
@@ -528,18 +878,26 @@ public class EventDatabase {
 		if (z != null) {
 			values.put(Z, z);
 		}
-		values.put(MESSAGE, message);
 		values.put(SEVERITY, severity);
-		// Do insert on seperate thread so that if synchronization locks up the
-		// method, main thread can return.
-		new Thread() {
+		final String truncatedMessage = truncateMessage(message);
+		// Do insert on the insert thread so that if synchronization locks up
+		// the method, main thread can return.
+		insertExecutor.execute(new Runnable() {
 			public void run() {
-				insert(values,context);
+				insertWithMessage(values, truncatedMessage, context);
 			}
-		}.start();
+		});
+	}
+
+	protected void setMaximumEventStorage(int maximumEventStorage) {
+		this.maximumEventStorage = maximumEventStorage;
+	}
+
+	protected void setMaximumMessageLength(int maximumMessageLength) {
+		this.maximumMessageLength = maximumMessageLength;
 	}
 
-	protected static void setMaximumEventStorage(int maximumEventStorage) {
-		MAXIMUM_EVENT_STORAGE = maximumEventStorage;
+	protected SymbolTable getSymbols() {
+		return symbols;
 	}
 }
\ No newline at end of file
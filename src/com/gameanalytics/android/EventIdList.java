@@ -0,0 +1,105 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+public class EventIdList {
+	// Growable list of database row ids kept as primitive longs. Row ids come
+	// out of the database in ascending order, and because the whole table is
+	// drained on every batch they are almost always contiguous. The delete
+	// clause therefore collapses runs of ids into BETWEEN ranges.
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] ids;
+	private int size;
+
+	public EventIdList() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public EventIdList(int initialCapacity) {
+		ids = new long[Math.max(initialCapacity, 1)];
+	}
+
+	public void add(long id) {
+		if (size == ids.length) {
+			long[] grown = new long[size << 1];
+			System.arraycopy(ids, 0, grown, 0, size);
+			ids = grown;
+		}
+		ids[size++] = id;
+	}
+
+	public long get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		}
+		return ids[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// Builds a where clause matching every id in the list, e.g.
+	// "_id BETWEEN 1 AND 500 OR _id IN (502,507)"
+	protected String toWhereClause(String column) {
+		if (size == 0) {
+			// Match nothing
+			return "0";
+		}
+		StringBuilder ranges = new StringBuilder();
+		StringBuilder singles = new StringBuilder();
+		int start = 0;
+		while (start < size) {
+			// Find end of contiguous run
+			int end = start;
+			while (end + 1 < size && ids[end + 1] == ids[end] + 1) {
+				end++;
+			}
+			if (end - start >= 2) {
+				if (ranges.length() > 0) {
+					ranges.append(" OR ");
+				}
+				ranges.append(column).append(" BETWEEN ").append(ids[start])
+						.append(" AND ").append(ids[end]);
+			} else {
+				for (int i = start; i <= end; i++) {
+					if (singles.length() > 0) {
+						singles.append(',');
+					}
+					singles.append(ids[i]);
+				}
+			}
+			start = end + 1;
+		}
+		if (singles.length() > 0) {
+			if (ranges.length() > 0) {
+				ranges.append(" OR ");
+			}
+			ranges.append(column).append(" IN (").append(singles).append(')');
+		}
+		return ranges.toString();
+	}
+}
@@ -27,7 +27,7 @@ public class EventList<E> extends ArrayList<E> {
 	private static final long serialVersionUID = 6853023502311564615L;
 
 	// Event ID list maintained alongside the main list of events
-	private ArrayList<Integer> eventIdList = new ArrayList<Integer>();
+	private EventIdList eventIdList = new EventIdList();
 
 	private String secretKey;
 
@@ -36,7 +36,7 @@ public class EventList<E> extends ArrayList<E> {
 		this.secretKey = secretKey;
 	}
 
-	public boolean addEvent(E event, int id) {
+	public boolean addEvent(E event, long id) {
 		eventIdList.add(id);
 		return super.add(event);
 	}
@@ -46,7 +46,7 @@ public class EventList<E> extends ArrayList<E> {
 		return secretKey;
 	}
 
-	public ArrayList<Integer> getEventIdList() {
+	public EventIdList getEventIdList() {
 		return eventIdList;
 	}
 }
@@ -0,0 +1,205 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.Random;
+
+public class EventSampler {
+	// EVENT SAMPLING
+	// Decides whether an event is kept, before anything is built for it.
+	// The rate comes from the longest matching event id prefix rule, where a
+	// prefix matches whole colon separated parts ('Shot' matches 'Shot' and
+	// 'Shot:Pistol' but not 'Shotgun'), else the rule for the category, else
+	// everything is kept.
+	//
+	// By default the sample is a hash of the user id, so a user is either in
+	// or out for every event with the same rate and a user kept at 5% is
+	// also kept at every higher rate. Without a user id, or with sampling by
+	// user turned off, each event is sampled at random.
+	//
+	// Rules are copied on write and published through a volatile field, so
+	// keep() doesn't lock or allocate.
+
+	private static class Rules {
+		private final String[] categories;
+		private final double[] categoryRates;
+		// Longest first
+		private final String[] prefixes;
+		private final double[] prefixRates;
+
+		private Rules(String[] categories, double[] categoryRates,
+				String[] prefixes, double[] prefixRates) {
+			this.categories = categories;
+			this.categoryRates = categoryRates;
+			this.prefixes = prefixes;
+			this.prefixRates = prefixRates;
+		}
+	}
+
+	private static class UserSample {
+		private final String userId;
+		private final double sample;
+
+		private UserSample(String userId, double sample) {
+			this.userId = userId;
+			this.sample = sample;
+		}
+	}
+
+	private final Random random = new Random();
+	private volatile Rules rules = new Rules(new String[0], new double[0],
+			new String[0], new double[0]);
+	private volatile UserSample userSample;
+	private volatile boolean sampleByUser = true;
+
+	protected synchronized void setCategoryRate(String category, double rate) {
+		Rules current = rules;
+		String[] categories = current.categories;
+		double[] rates = current.categoryRates;
+		int i = indexOf(categories, category);
+		if (i < 0) {
+			categories = append(categories, category);
+			rates = append(rates, rate);
+		} else {
+			rates = rates.clone();
+			rates[i] = rate;
+		}
+		rules = new Rules(categories, rates, current.prefixes,
+				current.prefixRates);
+	}
+
+	protected synchronized void setPrefixRate(String prefix, double rate) {
+		Rules current = rules;
+		String[] prefixes = current.prefixes;
+		double[] rates = current.prefixRates;
+		int i = indexOf(prefixes, prefix);
+		if (i >= 0) {
+			rates = rates.clone();
+			rates[i] = rate;
+		} else {
+			// Insert before the first shorter prefix to keep longest first
+			int at = 0;
+			while (at < prefixes.length
+					&& prefixes[at].length() >= prefix.length()) {
+				at++;
+			}
+			String[] newPrefixes = new String[prefixes.length + 1];
+			double[] newRates = new double[rates.length + 1];
+			System.arraycopy(prefixes, 0, newPrefixes, 0, at);
+			System.arraycopy(rates, 0, newRates, 0, at);
+			newPrefixes[at] = prefix;
+			newRates[at] = rate;
+			System.arraycopy(prefixes, at, newPrefixes, at + 1,
+					prefixes.length - at);
+			System.arraycopy(rates, at, newRates, at + 1, rates.length - at);
+			prefixes = newPrefixes;
+			rates = newRates;
+		}
+		rules = new Rules(current.categories, current.categoryRates,
+				prefixes, rates);
+	}
+
+	protected void setSampleByUser(boolean value) {
+		sampleByUser = value;
+	}
+
+	/**
+	 * @param eventId
+	 *            may be null for categories without event ids
+	 * @return true if the event should be kept
+	 */
+	protected boolean keep(String category, String eventId, String userId) {
+		double rate = rate(rules, category, eventId);
+		if (rate >= 1) {
+			return true;
+		} else if (rate <= 0) {
+			return false;
+		}
+		return sample(userId) < rate;
+	}
+
+	private static double rate(Rules rules, String category, String eventId) {
+		if (eventId != null) {
+			String[] prefixes = rules.prefixes;
+			for (int i = 0; i < prefixes.length; i++) {
+				String prefix = prefixes[i];
+				if (eventId.startsWith(prefix)
+						&& (eventId.length() == prefix.length() || eventId
+								.charAt(prefix.length()) == ':')) {
+					return rules.prefixRates[i];
+				}
+			}
+		}
+		String[] categories = rules.categories;
+		for (int i = 0; i < categories.length; i++) {
+			if (categories[i] == category || categories[i].equals(category)) {
+				return rules.categoryRates[i];
+			}
+		}
+		return 1;
+	}
+
+	// In [0, 1)
+	private double sample(String userId) {
+		if (userId == null || !sampleByUser) {
+			return random.nextDouble();
+		}
+		UserSample current = userSample;
+		if (current == null || !current.userId.equals(userId)) {
+			current = new UserSample(userId, hash(userId));
+			userSample = current;
+		}
+		return current.sample;
+	}
+
+	// String.hashCode() is the same on every device and release, mixed so
+	// that similar ids land far apart
+	private static double hash(String userId) {
+		long h = userId.hashCode();
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h >>> 11) / (double) (1L << 53);
+	}
+
+	private static int indexOf(String[] values, String value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String[] append(String[] values, String value) {
+		String[] newValues = new String[values.length + 1];
+		System.arraycopy(values, 0, newValues, 0, values.length);
+		newValues[values.length] = value;
+		return newValues;
+	}
+
+	private static double[] append(double[] values, double value) {
+		double[] newValues = new double[values.length + 1];
+		System.arraycopy(values, 0, newValues, 0, values.length);
+		newValues[values.length] = value;
+		return newValues;
+	}
+}
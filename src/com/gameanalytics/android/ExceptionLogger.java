@@ -24,13 +24,22 @@ import java.lang.Thread.UncaughtExceptionHandler;
 
 public class ExceptionLogger implements UncaughtExceptionHandler {
 
+	private GameAnalyticsClient client;
+	private UncaughtExceptionHandler defaultHandler;
+
+	public ExceptionLogger(GameAnalyticsClient client,
+			UncaughtExceptionHandler defaultHandler) {
+		this.client = client;
+		this.defaultHandler = defaultHandler;
+	}
+
 	public void uncaughtException(Thread thread, Throwable ex) {
 		// Get stack trace associated with exceptions as String
 		StringWriter sw = new StringWriter();
 		PrintWriter pw = new PrintWriter(sw);
 		ex.printStackTrace(pw);
-		String stackTrace = sw.toString().replaceAll("\n", ",")
-				.replaceAll("\t", " ");
+		String stackTrace = sw.toString().replace('\n', ',')
+				.replace('\t', ' ');
 
 		// Find root cause
 		Throwable cause = ex;
@@ -39,10 +48,9 @@ public class ExceptionLogger implements UncaughtExceptionHandler {
 		}
 
 		// Log the error
-		GameAnalytics
-				.newErrorEvent(stackTrace, GameAnalytics.CRITICAL_SEVERITY);
+		client.newErrorEvent(stackTrace, GameAnalytics.CRITICAL_SEVERITY);
 
 		// Pass to default exception handler once data has been sent.
-		GameAnalytics.DEFAULT_EXCEPTION_HANDLER.uncaughtException(thread, ex);
+		defaultHandler.uncaughtException(thread, ex);
 	}
 }
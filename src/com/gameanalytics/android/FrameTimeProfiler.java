@@ -0,0 +1,130 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class FrameTimeProfiler {
+	// FRAME TIME PROFILER
+	// frame() is called once per frame from the draw thread, stop() from
+	// whichever thread collates the results. frame() doesn't allocate or lock,
+	// it only does atomic adds into a fixed set of histogram buckets. Frame
+	// times are bucketed in microseconds, see LogLinearBuckets.
+
+	private static final long DEFAULT_BUDGET_NANOS = 1000000000L / 60;
+
+	// Written by frame()
+	private final AtomicLongArray counts = new AtomicLongArray(
+			LogLinearBuckets.BUCKETS);
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLong jankCount = new AtomicLong();
+	private volatile long startNanos;
+	private volatile long lastFrameNanos;
+	private volatile long budgetNanos = DEFAULT_BUDGET_NANOS;
+
+	// Results of the last stop(), only touched by the thread calling stop()
+	private final long[] stoppedCounts = new long[LogLinearBuckets.BUCKETS];
+	private long stoppedFrameCount;
+	private long stoppedMaxNanos;
+	private long stoppedJankCount;
+
+	/**
+	 * Record a frame. The first call starts a new period.
+	 *
+	 * @return true if this call started a new period
+	 */
+	protected boolean frame() {
+		long now = System.nanoTime();
+		long last = lastFrameNanos;
+		lastFrameNanos = now;
+		if (last == 0) {
+			startNanos = now;
+			return true;
+		}
+		long frameNanos = now - last;
+		counts.incrementAndGet(LogLinearBuckets.bucketIndex(frameNanos / 1000));
+		if (frameNanos > 2 * budgetNanos) {
+			jankCount.incrementAndGet();
+		}
+		long max;
+		while (frameNanos > (max = maxNanos.get())) {
+			if (maxNanos.compareAndSet(max, frameNanos)) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	protected boolean isStarted() {
+		return lastFrameNanos != 0;
+	}
+
+	/**
+	 * End the current period. The getters then describe the period that was
+	 * just stopped and the next call to frame() starts a new one.
+	 *
+	 * @return length of the period in nanoseconds, or 0 if it never started
+	 */
+	protected long stop() {
+		long start = startNanos;
+		if (lastFrameNanos == 0) {
+			return 0;
+		}
+		lastFrameNanos = 0;
+		long elapsed = System.nanoTime() - start;
+
+		stoppedFrameCount = LogLinearBuckets.drain(counts, 0, stoppedCounts);
+		stoppedMaxNanos = maxNanos.getAndSet(0);
+		stoppedJankCount = jankCount.getAndSet(0);
+		return elapsed;
+	}
+
+	/**
+	 * @param targetFPS
+	 *            frames longer than twice 1/targetFPS count as jank
+	 */
+	protected void setTargetFPS(int targetFPS) {
+		budgetNanos = 1000000000L / Math.max(targetFPS, 1);
+	}
+
+	protected long getFrameCount() {
+		return stoppedFrameCount;
+	}
+
+	protected long getJankCount() {
+		return stoppedJankCount;
+	}
+
+	protected float getMaxMillis() {
+		return stoppedMaxNanos / 1000000f;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the frame time in milliseconds that the given percentage of
+	 *         frames were at or below, to within one bucket
+	 */
+	protected float getPercentileMillis(double percentile) {
+		// Middle of the bucket, but never more than the slowest frame
+		return Math.min(LogLinearBuckets.percentile(stoppedCounts,
+				stoppedFrameCount, percentile) / 1000f, getMaxMillis());
+	}
+}
@@ -19,22 +19,17 @@
 package com.gameanalytics.android;
 
 import java.io.UnsupportedEncodingException;
-import java.lang.Thread.UncaughtExceptionHandler;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.pm.PackageManager.NameNotFoundException;
-import android.provider.Settings.Secure;
-import android.text.format.Time;
-
-import com.loopj.twicecircled.android.http.AsyncHttpClient;
 
 /**
  * Public singleton class used to interface with the GameAnalytics servers.
+ * The static methods act on a default {@link GameAnalyticsClient}, create
+ * more clients to send events for several games from one application.
  */
 public class GameAnalytics {
 
@@ -65,27 +60,6 @@ public class GameAnalytics {
 	protected static final String BUSINESS = "business";
 	protected static final String ERROR = "error";
 
-	// APP/DEVELOPER SPECIFIC
-	private static String GAME_KEY;
-	private static String SECRET_KEY;
-	private static String GOOGLE_AID;
-	private static String USER_ID;
-	private static String UNHASHED_ANDROID_ID;
-	private static String SESSION_ID;
-	private static String BUILD;
-	private static String AREA;
-	private static int SEND_EVENT_INTERVAL = 20000; // Default is 20 secs
-	private static int NETWORK_POLL_INTERVAL = 60000; // Default is 60 secs
-	private static int SESSION_TIME_OUT = 20000; // Default is 20 secs
-	private static int MINIMUM_FPS_PERIOD = 5000; // Default is 5 second
-	private static int CRITICAL_FPS_LIMIT = 30; // Default is 30 frames
-
-	// PRECONFIGURED EVENTS
-	private static final String FPS_EVENT_NAME = "GA:AverageFPS";
-	private static final String CRITICAL_FPS_EVENT_NAME = "GA:CriticalFPS";
-	private static final String ANDROID = "Android";
-	private static final String SDK_VERSION = "android 1.14.5";
-
 	// HASHMAP AND KEYS
 	private static final String GAME_ANALYTICS_HASHSTORE = "game_analytics_hashstore";
 	// No longer used but left in for posterity:
@@ -118,22 +92,37 @@ public class GameAnalytics {
 	 */
 	public static final Severity DEBUG_SEVERITY = new Severity("debug");
 
-	// OTHER
-	private static AsyncHttpClient CLIENT;
-	private static BatchThread CURRENT_THREAD;
-	protected static UncaughtExceptionHandler DEFAULT_EXCEPTION_HANDLER;
-	private static ExceptionLogger EXCEPTION_LOGGER;
-	private static Context CONTEXT;
-	private static boolean INITIALISED = false;
-	private static boolean SESSION_STARTED = false;
-	private static boolean CACHE_LOCALLY = true;
-	private static boolean AUTO_BATCH = true;
-	private static long SESSION_END_TIME;
-	private static long START_FPS_TIME;
-	private static int FPS_FRAMES;
-	private static ArrayList<PostResponseHandler> FINISHED_SENDING_EVENTS = new ArrayList<PostResponseHandler>();
-	private static boolean CAN_START_NEW_THREAD = true;
-	private static boolean DISABLED = false;
+	// DATABASE PROFILES
+	/**
+	 * Used as the databaseProfile parameter for initialise(). Write-ahead
+	 * logging with every insert synced to disk. This is the default. Devices
+	 * older than Honeycomb use the rollback journal instead.
+	 */
+	public static final DatabaseProfile SAFE_DATABASE_PROFILE = new DatabaseProfile(
+			"safe", true, DatabaseProfile.SYNCHRONOUS_FULL, 0, 0);
+	/**
+	 * Used as the databaseProfile parameter for initialise(). Write-ahead
+	 * logging with relaxed syncing and a larger page cache. The database
+	 * survives application crashes but the most recent events may be lost if
+	 * the device loses power.
+	 */
+	public static final DatabaseProfile FAST_DATABASE_PROFILE = new DatabaseProfile(
+			"fast", true, DatabaseProfile.SYNCHRONOUS_NORMAL, 4096, 500);
+
+	// The client the static methods act on
+	private static final GameAnalyticsClient DEFAULT_CLIENT = new GameAnalyticsClient(
+			null);
+
+	/**
+	 * The client that the static methods of this class act on. Its database
+	 * is the one used before clients were introduced, so events stored by
+	 * earlier versions are still sent.
+	 * 
+	 * @return the default client
+	 */
+	public static GameAnalyticsClient getDefaultClient() {
+		return DEFAULT_CLIENT;
+	}
 
 	/**
 	 * Initialise the GameAnalytics wrapper. It is recommended that you call
@@ -150,17 +139,7 @@ public class GameAnalytics {
 	 */
 	public static void initialise(Context context, String secretKey,
 			String gameKey) {
-		// Get build version from AndroidManifest.xml
-		String build;
-		try {
-			build = context.getPackageManager().getPackageInfo(
-					context.getPackageName(), 0).versionName;
-		} catch (NameNotFoundException e) {
-			GALog.w("Warning: android:versionName tag is not set correctly in Android Manifest.");
-			build = "unknown";
-		}
-		// Pass on to full initialise method
-		initialise(context, secretKey, gameKey, build);
+		DEFAULT_CLIENT.initialise(context, secretKey, gameKey);
 	}
 
 	/**
@@ -180,72 +159,31 @@ public class GameAnalytics {
 	 */
 	public static void initialise(Context context, String secretKey,
 			String gameKey, String build) {
-		if (INITIALISED) {
-			GALog.w("Game Analytics already initialised.");
-			return;
-		}
-		// Get reference to first context
-		CONTEXT = context.getApplicationContext();
-
-		// Get user id
-		UNHASHED_ANDROID_ID = Secure.getString(context.getContentResolver(),
-				Secure.ANDROID_ID);
-
-		// Set game and secret keys and build
-		SECRET_KEY = secretKey;
-		GAME_KEY = gameKey + "/";
-		BUILD = build;
-
-		// Initialise other variables
-		CLIENT = new AsyncHttpClient();
-		DEFAULT_EXCEPTION_HANDLER = Thread.currentThread()
-				.getUncaughtExceptionHandler();
-		EXCEPTION_LOGGER = new ExceptionLogger();
-
-		// Force database to get writable database now. This also makes it
-		// perform existing user check for Google AID next
-		EventDatabase.initialise(CONTEXT);
-
-		// Google AID - Is it available?
-		GetGoogleAIDAsync getGAIDAsync = new GetGoogleAIDAsync(CONTEXT);
-		getGAIDAsync.execute();
-
-		// Set boolean initialised, newEvent() can only be called after
-		// initialise() and startSession()
-		DISABLED = false;
-		INITIALISED = true;
+		DEFAULT_CLIENT.initialise(context, secretKey, gameKey, build);
 	}
 
-	// Called under the following circumstances:
-	// 1. If user first used app prior to version 1.14.0 the database will be
-	// detected and the UUID will continue to be used.
-	// 2. If the Google AID is unavailable.
-	// 3. If the user opts out of tracking
-	protected static void setUserIdToUUID() {
-		// Respect custom user_id
-		if (USER_ID == null) {
-			setUserId(md5(UNHASHED_ANDROID_ID));
-		}
-
-		// Populate user ids of any events created before user id finalised
-		populateEventsWithNoUserId();
-	}
-
-	private static void populateEventsWithNoUserId() {
-		// This functionality is here because getting the Google AID
-		// is an asynchronous process. Therefore any events created directly
-		// after calling initialise() will have user_id = "null". This code will
-		// fill them in with the new id.
-		if (USER_ID != null) {
-			if (ready()) {
-				EventDatabase.populateEventsWithNoUserId(USER_ID, GOOGLE_AID,
-						CONTEXT);
-			} else {
-				GALog.w("Warning: trying to fill in events with no user id but Game Analytics is not initialised.");
-			}
-		} else {
-			GALog.w("Warning: trying to fill in events with no user id but user id is still null.");
-		}
+	/**
+	 * Initialise the GameAnalytics wrapper. It is recommended that you call
+	 * this method from the entry activity of your application's onCreate()
+	 * method.
+	 * 
+	 * @param context
+	 *            the calling activity
+	 * @param secretKey
+	 *            secret key supplied when you registered at GameAnalytics
+	 * @param gameKey
+	 *            game key supplied when you registered at GameAnalytics
+	 * @param build
+	 *            build version of the application
+	 * @param databaseProfile
+	 *            durability settings for the local event database, use
+	 *            GameAnalytics.SAFE_DATABASE_PROFILE (default) or
+	 *            GameAnalytics.FAST_DATABASE_PROFILE
+	 */
+	public static void initialise(Context context, String secretKey,
+			String gameKey, String build, DatabaseProfile databaseProfile) {
+		DEFAULT_CLIENT.initialise(context, secretKey, gameKey, build,
+				databaseProfile);
 	}
 
 	/**
@@ -254,7 +192,7 @@ public class GameAnalytics {
 	 * @return true if initialised, otherwise false
 	 */
 	public static boolean isInitialised() {
-		return INITIALISED;
+		return DEFAULT_CLIENT.isInitialised();
 	}
 
 	/**
@@ -263,7 +201,7 @@ public class GameAnalytics {
 	 * @return true if session started, otherwise false
 	 */
 	public static boolean isSessionStarted() {
-		return SESSION_STARTED;
+		return DEFAULT_CLIENT.isSessionStarted();
 	}
 
 	/**
@@ -274,25 +212,7 @@ public class GameAnalytics {
 	 *            the calling activity
 	 */
 	public static void startSession(Context context) {
-		// Update current context
-		CONTEXT = context.getApplicationContext();
-		AREA = context.getClass().getSimpleName();
-
-		// Current time:
-		long nowTime = System.currentTimeMillis();
-
-		SESSION_STARTED = true;
-
-		// Need to get a new sessionId?
-		if (SESSION_ID == null
-				|| (SESSION_END_TIME != 0 && nowTime > SESSION_END_TIME)) {
-			// Set up unique session id
-			SESSION_ID = getSessionId();
-			GALog.i("Starting new session");
-
-			// Send off model and OS version
-			sendOffUserStats();
-		}
+		DEFAULT_CLIENT.startSession(context);
 	}
 
 	/**
@@ -301,9 +221,7 @@ public class GameAnalytics {
 	 * 
 	 */
 	public static void stopSession() {
-		// sessionTimeOut is some time after now
-		SESSION_END_TIME = System.currentTimeMillis() + SESSION_TIME_OUT;
-		SESSION_STARTED = false;
+		DEFAULT_CLIENT.stopSession();
 	}
 
 	/**
@@ -325,17 +243,7 @@ public class GameAnalytics {
 	 */
 	public static void newDesignEvent(String eventId, Float value, String area,
 			Float x, Float y, Float z) {
-		if (ready()) {
-			GALog.i("New design event: " + eventId + ", value: " + value
-					+ ", area: " + area + ", pos: (" + x + ", " + y + ", " + z
-					+ ")");
-			// Ensure we have a BatchThread ready to receive events
-			startThreadIfReq();
-
-			// Add design event to batch stack
-			EventDatabase.addDesignEvent(GAME_KEY, SECRET_KEY, USER_ID,
-					SESSION_ID, BUILD, eventId, area, x, y, z, value, CONTEXT);
-		}
+		DEFAULT_CLIENT.newDesignEvent(eventId, value, area, x, y, z);
 	}
 
 	/**
@@ -347,7 +255,7 @@ public class GameAnalytics {
 	 *            use colons to denote subtypes, e.g. 'PickedUpAmmo:Shotgun'
 	 */
 	public static void newDesignEvent(String eventId) {
-		newDesignEvent(eventId, null);
+		DEFAULT_CLIENT.newDesignEvent(eventId);
 	}
 
 	/**
@@ -361,7 +269,7 @@ public class GameAnalytics {
 	 *            numeric value associated with event e.g. number of shells
 	 */
 	public static void newDesignEvent(String eventId, Float value) {
-		newDesignEvent(eventId, value, AREA, null, null, null);
+		DEFAULT_CLIENT.newDesignEvent(eventId, value);
 	}
 
 	/**
@@ -386,18 +294,7 @@ public class GameAnalytics {
 	 */
 	public static void newQualityEvent(String eventId, String message,
 			String area, Float x, Float y, Float z) {
-		if (ready()) {
-			GALog.i("New quality event: " + eventId + ", message: " + message
-					+ ", area: " + area + ", pos: (" + x + ", " + y + ", " + z
-					+ ")");
-			// Ensure we have a BatchThread ready to receive events
-			startThreadIfReq();
-
-			// Add quality event to batch stack
-			EventDatabase
-					.addQualityEvent(GAME_KEY, SECRET_KEY, USER_ID, SESSION_ID,
-							BUILD, eventId, area, x, y, z, message, CONTEXT);
-		}
+		DEFAULT_CLIENT.newQualityEvent(eventId, message, area, x, y, z);
 	}
 
 	/**
@@ -429,7 +326,8 @@ public class GameAnalytics {
 	 * @deprecated use {@link newErrorEvent()} instead.
 	 */
 	public static void newQualityEvent(String eventId, String message) {
-		newQualityEvent(eventId, message, AREA, null, null, null);
+		newQualityEvent(eventId, message, DEFAULT_CLIENT.getArea(), null, null,
+				null);
 	}
 
 	/**
@@ -453,20 +351,7 @@ public class GameAnalytics {
 	 */
 	public static void newErrorEvent(String message, Severity severity,
 			String area, Float x, Float y, Float z) {
-		if (ready()) {
-			if (doErrorSeverityCheck(severity)) {
-				GALog.i("New error event: message: " + message + ", severity: "
-						+ severity + ", area: " + area + ", pos: (" + x + ", "
-						+ y + ", " + z + ")");
-				// Ensure we have a BatchThread ready to receive events
-				startThreadIfReq();
-
-				// Add quality event to batch stack
-				EventDatabase.addErrorEvent(GAME_KEY, SECRET_KEY, USER_ID,
-						SESSION_ID, BUILD, area, x, y, z, message,
-						severity.toString(), CONTEXT);
-			}
-		}
+		DEFAULT_CLIENT.newErrorEvent(message, severity, area, x, y, z);
 	}
 
 	/**
@@ -482,54 +367,7 @@ public class GameAnalytics {
 	 *            or GameAnalytics.DEBUG.
 	 */
 	public static void newErrorEvent(String message, Severity severity) {
-		newErrorEvent(message, severity, AREA, null, null, null);
-	}
-
-	// This is the privately accessible method to send all user event data.
-	// Developers should use the following publically available ones:
-	// 1. setUserInfo(char gender, int birthYear, int friendCount)
-	// 2. setReferralInfo(String installPublisher, String installSite, String
-	// installCampaign, String installAd, String installKeyword)
-	private static void newUserEvent(Character gender, Integer birthYear,
-			Integer friendCount, String area, Float x, Float y, Float z,
-			String platform, String device, String osMajor, String osMinor,
-			String sdkVersion, String installPublisher, String installSite,
-			String installCampaign, String installAdgroup, String installAd,
-			String installKeyword, String androidId, String googleAID) {
-		if (ready()) {
-			GALog.i("New user event: gender: " + gender + ", birth_year: "
-					+ birthYear + ", friend_count: " + friendCount + ", area: "
-					+ area + ", pos: (" + x + ", " + y + ", " + z + "), "
-					+ platform + ", device: " + device + ", os_major: "
-					+ osMajor + ", os_minor: " + osMinor + ", sdk_version :"
-					+ sdkVersion + ", install_publisher: " + installPublisher
-					+ ", install_site: " + installSite + ", install_campaign: "
-					+ installCampaign + ", install_adgroup: " + installAdgroup
-					+ ", install_ad: " + installAd + ", install_keyword: "
-					+ installKeyword + ", android_id: " + androidId
-					+ ", google_aid: " + googleAID + ")");
-			// Ensure we have a BatchThread ready to receive events
-			startThreadIfReq();
-
-			// Add user event to batch stack
-			EventDatabase.addUserEvent(GAME_KEY, SECRET_KEY, USER_ID,
-					SESSION_ID, BUILD, area, x, y, z, gender, birthYear,
-					friendCount, platform, device, osMajor, osMinor,
-					sdkVersion, installPublisher, installSite, installCampaign,
-					installAdgroup, installAd, installKeyword, androidId,
-					googleAID, CONTEXT);
-		}
-	}
-
-	private static boolean doErrorSeverityCheck(Severity severity) {
-		if (CRITICAL_SEVERITY == severity || ERROR_SEVERITY == severity
-				|| WARNING_SEVERITY == severity || INFO_SEVERITY == severity
-				|| DEBUG_SEVERITY == severity) {
-			return true;
-		} else {
-			GALog.w("Warning: unsupported severity level passed into newErrorEvent(), use GameAnalyics.CRITICAL, GameAnalyics.ERROR etc.");
-			return false;
-		}
+		DEFAULT_CLIENT.newErrorEvent(message, severity);
 	}
 
 	/**
@@ -550,8 +388,8 @@ public class GameAnalytics {
 	 */
 	public static void newUserEvent(String eventId, Character gender,
 			Integer birthYear, Integer friendCount) {
-		newUserEvent(eventId, gender, birthYear, friendCount, AREA, null, null,
-				null);
+		newUserEvent(eventId, gender, birthYear, friendCount,
+				DEFAULT_CLIENT.getArea(), null, null, null);
 	}
 
 	/**
@@ -581,9 +419,9 @@ public class GameAnalytics {
 	public static void newUserEvent(String eventId, Character gender,
 			Integer birthYear, Integer friendCount, String area, Float x,
 			Float y, Float z) {
-		newUserEvent(gender, birthYear, friendCount, area, x, y, z, null, null,
-				null, null, null, null, null, null, null, null, null, null,
-				null);
+		DEFAULT_CLIENT.newUserEvent(gender, birthYear, friendCount, area, x, y,
+				z, null, null, null, null, null, null, null, null, null, null,
+				null, null, null);
 	}
 
 	/**
@@ -599,9 +437,7 @@ public class GameAnalytics {
 	 */
 	public static void setUserInfo(Character gender, Integer birthYear,
 			Integer friendCount) {
-		newUserEvent(gender, birthYear, friendCount, AREA, null, null, null,
-				null, null, null, null, null, null, null, null, null, null,
-				null, null, null);
+		DEFAULT_CLIENT.setUserInfo(gender, birthYear, friendCount);
 	}
 
 	/**
@@ -625,11 +461,8 @@ public class GameAnalytics {
 	public static void setReferralInfo(String installPublisher,
 			String installSite, String installCampaign, String installAdgroup,
 			String installAd, String installKeyword) {
-		// User event for GA
-		newUserEvent(null, null, null, AREA, null, null, null, null, null,
-				null, null, null, installPublisher, installSite,
-				installCampaign, installAdgroup, installAd, installKeyword,
-				null, null);
+		DEFAULT_CLIENT.setReferralInfo(installPublisher, installSite,
+				installCampaign, installAdgroup, installAd, installKeyword);
 	}
 
 	/**
@@ -653,19 +486,7 @@ public class GameAnalytics {
 	 */
 	public static void newBusinessEvent(String eventId, String currency,
 			int amount, String area, Float x, Float y, Float z) {
-		if (ready()) {
-			GALog.i("New business event: " + eventId + ", currency: "
-					+ currency + ", amount: " + amount + ", area: " + area
-					+ ", pos: (" + x + ", " + y + ", " + z + ")");
-			// Ensure we have a BatchThread ready to receive events
-			startThreadIfReq();
-
-			// Add business event to batch stack
-			EventDatabase.addBusinessEvent(GAME_KEY, SECRET_KEY, USER_ID,
-					SESSION_ID, BUILD, eventId, area, x, y, z, currency,
-					amount, CONTEXT);
-
-		}
+		DEFAULT_CLIENT.newBusinessEvent(eventId, currency, amount, area, x, y, z);
 	}
 
 	/**
@@ -682,7 +503,170 @@ public class GameAnalytics {
 	 */
 	public static void newBusinessEvent(String eventId, String currency,
 			int amount) {
-		newBusinessEvent(eventId, currency, amount, AREA, null, null, null);
+		DEFAULT_CLIENT.newBusinessEvent(eventId, currency, amount);
+	}
+
+	/**
+	 * Only keep a fraction of the events in a category. Events that are
+	 * sampled out are dropped straight away. By default all events are kept.
+	 * A rate set for an event id prefix with setSamplingRate(String, double)
+	 * takes priority.
+	 * 
+	 * @param category
+	 *            one of "design", "business", "user", "quality" or "error"
+	 * @param rate
+	 *            between 0 (drop all) and 1 (keep all), e.g. 0.05 for 5%
+	 */
+	public static void setCategorySamplingRate(String category, double rate) {
+		DEFAULT_CLIENT.setCategorySamplingRate(category, rate);
+	}
+
+	/**
+	 * Only keep a fraction of the events whose id starts with the given
+	 * prefix. Prefixes match whole parts of the event id, so 'Shot' applies
+	 * to 'Shot' and 'Shot:Pistol' but not 'Shotgun'. The longest matching
+	 * prefix wins. By default all events are kept.
+	 * 
+	 * @param eventIdPrefix
+	 *            e.g. 'Footstep' or 'PickedUpAmmo:Shotgun'
+	 * @param rate
+	 *            between 0 (drop all) and 1 (keep all), e.g. 0.05 for 5%
+	 */
+	public static void setSamplingRate(String eventIdPrefix, double rate) {
+		DEFAULT_CLIENT.setSamplingRate(eventIdPrefix, rate);
+	}
+
+	/**
+	 * Choose how events are sampled, see setSamplingRate(). By default the
+	 * decision is based on the user id, so a sampled user's events are all
+	 * kept and their journey stays complete. If false, each event is sampled
+	 * at random.
+	 * 
+	 * @param value
+	 *            true to sample by user, false to sample each event
+	 */
+	public static void setSampleByUser(boolean value) {
+		DEFAULT_CLIENT.setSampleByUser(value);
+	}
+
+	/**
+	 * Limit how often events with the same id can be sent, to stop a logging
+	 * call in the wrong place (e.g. the draw loop) from filling the database.
+	 * Events over the limit are dropped and the number dropped is sent every
+	 * aggregation interval (see setAggregationInterval()) as a
+	 * "GA:RateLimited" design event. Error and user events are limited as if
+	 * they all had the same id. There is no limit by default. Choose a limit
+	 * that allows your busiest legitimate bursts, e.g. the business and user
+	 * events sent at the end of a level.
+	 * 
+	 * @param eventsPerSecond
+	 *            sustained rate allowed for each event id, 0 for no limit
+	 * @param burst
+	 *            number of events allowed at once before the rate applies
+	 */
+	public static void setRateLimit(int eventsPerSecond, int burst) {
+		DEFAULT_CLIENT.setRateLimit(eventsPerSecond, burst);
+	}
+
+	/**
+	 * Limit how often events can be sent across all event ids, see
+	 * setRateLimit(). There is no limit by default.
+	 * 
+	 * @param eventsPerSecond
+	 *            sustained rate allowed for all events, 0 for no limit
+	 * @param burst
+	 *            number of events allowed at once before the rate applies
+	 */
+	public static void setGlobalRateLimit(int eventsPerSecond, int burst) {
+		DEFAULT_CLIENT.setGlobalRateLimit(eventsPerSecond, burst);
+	}
+
+	/**
+	 * Treat a design event as a counter. Instead of storing and sending every
+	 * event with this id, the values are added up in memory and sent as one
+	 * design event per area every aggregation interval (see
+	 * setAggregationInterval()). Events without a value count as 1. Events
+	 * with a position are not aggregated.
+	 * 
+	 * @param eventId
+	 *            exact event id, e.g. 'PickedUpAmmo:Shotgun'
+	 */
+	public static void aggregateCounter(String eventId) {
+		DEFAULT_CLIENT.aggregateCounter(eventId);
+	}
+
+	/**
+	 * Treat a design event as a gauge. Instead of storing and sending every
+	 * event with this id, the values are collated in memory and every
+	 * aggregation interval (see setAggregationInterval()) the mean is sent
+	 * for each area, along with eventId:Min, eventId:Max and eventId:Count.
+	 * Events with a position are not aggregated.
+	 * 
+	 * @param eventId
+	 *            exact event id, e.g. 'Ping'
+	 */
+	public static void aggregateGauge(String eventId) {
+		DEFAULT_CLIENT.aggregateGauge(eventId);
+	}
+
+	/**
+	 * Send the distribution of a design event's values rather than every
+	 * value, e.g. for damage dealt or ping. Every aggregation interval (see
+	 * setAggregationInterval()) the 50th, 90th and 99th percentiles are sent
+	 * as eventId:P50, eventId:P90 and eventId:P99, accurate to within 2%,
+	 * along with eventId:Count. Percentiles cover all areas. Events without a
+	 * value or with a position are sent as normal. Up to 32 event ids can be
+	 * tracked.
+	 * 
+	 * @param eventId
+	 *            exact event id, e.g. 'DamageDealt'
+	 */
+	public static void aggregateQuantiles(String eventId) {
+		DEFAULT_CLIENT.aggregateQuantiles(eventId);
+	}
+
+	/**
+	 * Bin a positional design event into a grid for heatmaps. Instead of
+	 * storing and sending every event with this id, events are counted per
+	 * grid cell and every aggregation interval (see setAggregationInterval())
+	 * one event is sent for each occupied cell, positioned at the cell's
+	 * centre with the number of events as value. The event's own value is
+	 * not kept. Events without a position, or more than 8191 cells from the
+	 * origin, are sent as normal.
+	 * 
+	 * @param eventId
+	 *            exact event id, e.g. 'Death:Fall'
+	 */
+	public static void aggregateHeatmap(String eventId) {
+		DEFAULT_CLIENT.aggregateHeatmap(eventId);
+	}
+
+	/**
+	 * Set the size of heatmap grid cells, see aggregateHeatmap(). The default
+	 * is 1. Cells collated so far are sent straight away, at their old size.
+	 * 
+	 * @param area
+	 *            area/level to set the cell size for, or null to set the
+	 *            default for all areas
+	 * @param cellSize
+	 *            width, height and depth of a cell, in the units of your
+	 *            positions
+	 */
+	public static void setHeatmapCellSize(String area, float cellSize) {
+		DEFAULT_CLIENT.setHeatmapCellSize(area, cellSize);
+	}
+
+	/**
+	 * Set the amount of time, in milliseconds, that counters, gauges,
+	 * quantiles, heatmaps and rate limited event counts are collated for
+	 * before being sent. They are all sent together at the end of each
+	 * interval. Takes effect after the next send. The default is 60 seconds.
+	 * 
+	 * @param millis
+	 *            interval in milliseconds
+	 */
+	public static void setAggregationInterval(int millis) {
+		DEFAULT_CLIENT.setAggregationInterval(millis);
 	}
 
 	/**
@@ -693,7 +677,7 @@ public class GameAnalytics {
 	 *            interval in milliseconds
 	 */
 	public static void setSendEventsInterval(int millis) {
-		SEND_EVENT_INTERVAL = millis;
+		DEFAULT_CLIENT.setSendEventsInterval(millis);
 	}
 
 	/**
@@ -705,7 +689,7 @@ public class GameAnalytics {
 	 *            interval in milliseconds
 	 */
 	public static void setNetworkPollInterval(int millis) {
-		NETWORK_POLL_INTERVAL = millis;
+		DEFAULT_CLIENT.setNetworkPollInterval(millis);
 	}
 
 	/**
@@ -717,7 +701,7 @@ public class GameAnalytics {
 	 *            interval in milliseconds
 	 */
 	public static void setSessionTimeOut(int millis) {
-		SESSION_TIME_OUT = millis;
+		DEFAULT_CLIENT.setSessionTimeOut(millis);
 	}
 
 	/**
@@ -726,19 +710,14 @@ public class GameAnalytics {
 	 * must then call stopLoggingFPS() at some point to collate the data and
 	 * send it to GameAnalytics. You can either do this intermittently e.g.
 	 * every 1000 frames, or over an entire gameplay session e.g. in the
-	 * activity's onPause() method. Either way, the average FPS will be logged.
+	 * activity's onPause() method. Either way, the average FPS will be logged
+	 * along with the median, 90th and 99th percentile and maximum frame times
+	 * and the number of janky frames (longer than twice the target frame
+	 * time, see setTargetFPS()). Cheap enough to call every frame, it doesn't
+	 * allocate or lock.
 	 */
 	public static void logFPS() {
-		// Have we already started logging FPS?
-		if (START_FPS_TIME == 0) {
-			// No, start logging
-			GALog.i("Start logging FPS.");
-			START_FPS_TIME = System.currentTimeMillis();
-			FPS_FRAMES = 0;
-		} else {
-			// Increment number of frames
-			FPS_FRAMES++;
-		}
+		DEFAULT_CLIENT.logFPS();
 	}
 
 	/**
@@ -759,32 +738,7 @@ public class GameAnalytics {
 	 *            (optional)
 	 */
 	public static void stopLoggingFPS(String area, Float x, Float y, Float z) {
-		if (ready()) {
-			GALog.i("Stop logging FPS.");
-			// Ensure we are logging FPS?
-			if (START_FPS_TIME != 0) {
-				// Get elapsed time
-				long elapsed = System.currentTimeMillis() - START_FPS_TIME;
-
-				// Has enough time elapsed?
-				if (elapsed > MINIMUM_FPS_PERIOD) {
-					// Work out average FPS and send
-					Float fps = (float) (FPS_FRAMES * 1000 / elapsed);
-					newDesignEvent(FPS_EVENT_NAME, fps, area, x, y, z);
-					if (fps < CRITICAL_FPS_LIMIT) {
-						// FPS is below critical limit
-						newDesignEvent(CRITICAL_FPS_EVENT_NAME, fps, area, x,
-								y, z);
-					}
-					START_FPS_TIME = 0;
-				} else {
-					GALog.w("Warning: Insufficient time elapsed between starting and stopping FPS logging.");
-					START_FPS_TIME = 0;
-				}
-			} else {
-				GALog.w("Warning: stopLoggingFPS() was called before logFPS().");
-			}
-		}
+		DEFAULT_CLIENT.stopLoggingFPS(area, x, y, z);
 	}
 
 	/**
@@ -796,7 +750,7 @@ public class GameAnalytics {
 	 * parameter.
 	 */
 	public static void stopLoggingFPS() {
-		stopLoggingFPS(AREA, null, null, null);
+		DEFAULT_CLIENT.stopLoggingFPS();
 	}
 
 	/**
@@ -808,7 +762,58 @@ public class GameAnalytics {
 	 *            in frames per second
 	 */
 	public static void setCriticalFPSLimit(int criticalFPS) {
-		CRITICAL_FPS_LIMIT = criticalFPS;
+		DEFAULT_CLIENT.setCriticalFPSLimit(criticalFPS);
+	}
+
+	/**
+	 * Set the frame rate your game aims for, used to count janky frames.
+	 * Frames that take more than twice as long as 1/targetFPS are counted in
+	 * the "GA:JankFrames" design event. The default is 60.
+	 * 
+	 * @param targetFPS
+	 *            in frames per second
+	 */
+	public static void setTargetFPS(int targetFPS) {
+		DEFAULT_CLIENT.setTargetFPS(targetFPS);
+	}
+
+	/**
+	 * Start timing something, e.g. a level load. Pass the returned value to
+	 * stopTimer() when it is done. Timers with the same name are collated and
+	 * sent every so often (see setTimerFlushInterval()) as design events
+	 * named after the timer: name:Count, name:Mean, name:Min, name:Max,
+	 * name:P50 and name:P90, in milliseconds. Cheap enough to call every
+	 * frame, any number of timers can run at once.
+	 * 
+	 * @param name
+	 *            use colons to denote subtypes, e.g. 'Load:Level1'
+	 * @return the timer to pass to stopTimer()
+	 */
+	public static long startTimer(String name) {
+		return DEFAULT_CLIENT.startTimer(name);
+	}
+
+	/**
+	 * Stop a timer started with startTimer().
+	 * 
+	 * @param timer
+	 *            value returned by startTimer()
+	 * @return the time elapsed in milliseconds, or -1 if the timer is invalid
+	 */
+	public static float stopTimer(long timer) {
+		return DEFAULT_CLIENT.stopTimer(timer);
+	}
+
+	/**
+	 * Set the amount of time, in milliseconds, that timings are collated for
+	 * before being sent. Takes effect after the next send. The default is 60
+	 * seconds.
+	 * 
+	 * @param millis
+	 *            interval in milliseconds
+	 */
+	public static void setTimerFlushInterval(int millis) {
+		DEFAULT_CLIENT.setTimerFlushInterval(millis);
 	}
 
 	/**
@@ -820,7 +825,7 @@ public class GameAnalytics {
 	 *            in milliseconds
 	 */
 	public static void setMinimumFPSTimePeriod(int minimumTimePeriod) {
-		MINIMUM_FPS_PERIOD = minimumTimePeriod;
+		DEFAULT_CLIENT.setMinimumFPSTimePeriod(minimumTimePeriod);
 	}
 
 	/**
@@ -830,7 +835,7 @@ public class GameAnalytics {
 	 * exceptions on e.g. update loop, draw loop etc.
 	 */
 	public static void logUnhandledExceptions() {
-		Thread.currentThread().setUncaughtExceptionHandler(EXCEPTION_LOGGER);
+		DEFAULT_CLIENT.logUnhandledExceptions();
 	}
 
 	/**
@@ -841,7 +846,19 @@ public class GameAnalytics {
 	 *            Custom unique user ID
 	 */
 	public static void setUserId(String userId) {
-		USER_ID = userId;
+		DEFAULT_CLIENT.setUserId(userId);
+	}
+
+	/**
+	 * Set the transport used to send events to the GameAnalytics servers. By
+	 * default an {@link AsyncHttpClientTransport} is created in initialise().
+	 * Batches that have already started keep using the previous transport.
+	 * 
+	 * @param transport
+	 *            the transport to use, e.g. new HttpURLConnectionTransport()
+	 */
+	public static void setTransport(Transport transport) {
+		DEFAULT_CLIENT.setTransport(transport);
 	}
 
 	/**
@@ -871,7 +888,7 @@ public class GameAnalytics {
 	 *            true = enabled; false = disabled
 	 */
 	public static void setLocalCaching(boolean value) {
-		CACHE_LOCALLY = value;
+		DEFAULT_CLIENT.setLocalCaching(value);
 	}
 
 	/**
@@ -884,7 +901,7 @@ public class GameAnalytics {
 	 *            true = enabled; false = disabled
 	 */
 	public static void setAutoBatch(boolean value) {
-		AUTO_BATCH = value;
+		DEFAULT_CLIENT.setAutoBatch(value);
 	}
 
 	/**
@@ -895,7 +912,19 @@ public class GameAnalytics {
 	 *            maximum number of events that can be stored
 	 */
 	public static void setMaximumEventStorage(int max) {
-		EventDatabase.setMaximumEventStorage(max);
+		DEFAULT_CLIENT.setMaximumEventStorage(max);
+	}
+
+	/**
+	 * Set maximum length, in characters, of the message attached to error and
+	 * quality events e.g. a stack trace. Longer messages are cut short and end
+	 * with "...[truncated]". Set to 0 for unlimited. The default is 65536.
+	 * 
+	 * @param max
+	 *            maximum message length in characters
+	 */
+	public static void setMaximumMessageLength(int max) {
+		DEFAULT_CLIENT.setMaximumMessageLength(max);
 	}
 
 	/**
@@ -904,42 +933,7 @@ public class GameAnalytics {
 	 * If there is no connection it will simply return.
 	 */
 	public static void manualBatch() {
-		if (ready()) {
-			if (CAN_START_NEW_THREAD) {
-				GALog.i("Starting manual batch.");
-				BatchThread sendEventThread = new BatchThread(CONTEXT, CLIENT,
-						GAME_KEY, SECRET_KEY, SEND_EVENT_INTERVAL,
-						NETWORK_POLL_INTERVAL, CACHE_LOCALLY);
-				CAN_START_NEW_THREAD = false;
-				sendEventThread.manualBatch();
-			} else {
-				GALog.w("Warning: GameAnalytics batch thread already started, wait for it to finish before starting another.");
-			}
-		}
-	}
-
-	private static boolean ready() {
-		if (INITIALISED) {
-			if (SESSION_STARTED && CONTEXT != null) {
-				if (!DISABLED) {
-					return true;
-				} else {
-					GALog.i("Analytics have been disabled.");
-				}
-			} else {
-				GALog.w("Warning: GameAnalytics session has not started. 1. Have you called GameAnalytics.startSession(Context context) in onResume()? OR 2. Are you trying to send events prior to onResume() being called, for example in onCreate()? You need to call startSession() before sending your first event.");
-			}
-		} else {
-			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
-		}
-		return false;
-	}
-
-	// Generates session id from md5 hash of current time
-	private static String getSessionId() {
-		Time time = new Time();
-		time.setToNow();
-		return md5(USER_ID + time.toString());
+		DEFAULT_CLIENT.manualBatch();
 	}
 
 	// Generates MD5 hash string from String, returns null on error
@@ -970,72 +964,63 @@ public class GameAnalytics {
 		}
 	}
 
-	private static void startThreadIfReq() {
-		// Only start new thread IF (current thread is null OR current thread
-		// has finished) AND auto-batch is switched on.
-		if ((CURRENT_THREAD == null || CAN_START_NEW_THREAD) && AUTO_BATCH) {
-			CURRENT_THREAD = new BatchThread(CONTEXT, CLIENT, GAME_KEY,
-					SECRET_KEY, SEND_EVENT_INTERVAL, NETWORK_POLL_INTERVAL,
-					CACHE_LOCALLY);
-			CURRENT_THREAD.start();
-			CAN_START_NEW_THREAD = false;
-		}
-	}
-
-	private static void sendOffUserStats() {
-		// Automatically log version numbers, model and unhashed android id.
-		String versionString = android.os.Build.VERSION.RELEASE;
-		String shortVersion;
-		if (versionString.length() >= 3) {
-			shortVersion = versionString.substring(0, 3);
-		} else {
-			// Probably a preview build e.g. "L"
-			shortVersion = versionString;
-		}
-
-		newUserEvent(null, null, null, AREA, null, null, null, ANDROID,
-				android.os.Build.MODEL, shortVersion, versionString,
-				SDK_VERSION, null, null, null, null, null, null,
-				UNHASHED_ANDROID_ID, GOOGLE_AID);
-	}
-
-	protected static void sendingEvents(PostResponseHandler handler) {
-		GALog.i("Sending " + handler.getNumberOfEvents() + " "
-				+ handler.getCategory() + " events.");
-		FINISHED_SENDING_EVENTS.add(handler);
+	/**
+	 * The userId that the SDK uses to track each individual user on the server.
+	 * 
+	 * @return the user id or null if the SDK is not initialised.
+	 */
+	public static String getUserId() {
+		return DEFAULT_CLIENT.getUserId();
 	}
 
-	protected static void finishedSendingEvents(PostResponseHandler handler) {
-		GALog.i("Finished sending " + handler.getNumberOfEvents() + " "
-				+ handler.getCategory() + " events.");
-		FINISHED_SENDING_EVENTS.remove(handler);
-		checkIfNoEvents();
+	/**
+	 * Statistics for the local event database, including how long event
+	 * inserts have waited on and held the database lock and how much space
+	 * the database is using. Useful for checking that sending events does not
+	 * stall your game.
+	 * 
+	 * @return snapshot of the database statistics or null if the SDK is not
+	 *         initialised.
+	 */
+	public static DatabaseStats getDatabaseStats() {
+		return DEFAULT_CLIENT.getDatabaseStats();
 	}
 
-	protected static void canStartNewThread() {
-		CAN_START_NEW_THREAD = true;
-		FINISHED_SENDING_EVENTS.clear();
+	/**
+	 * Get the transport ready to send events, so that the first batch doesn't
+	 * wait on a DNS lookup and a new connection. The host is looked up in the
+	 * background and, if the device is on Wi-Fi, a keep-alive connection is
+	 * opened as well. Call after initialise(), e.g. when your game reaches its
+	 * main menu.
+	 */
+	public static void warmUpConnection() {
+		DEFAULT_CLIENT.warmUpConnection();
 	}
 
-	protected static void checkIfNoEvents() {
-		if (FINISHED_SENDING_EVENTS.isEmpty()) {
-			CAN_START_NEW_THREAD = true;
-			GALog.i("OK, ready to start new thread.");
-		}
+	/**
+	 * Statistics for the connections used to send events, including how often
+	 * keep-alive connections and cached DNS lookups were reused.
+	 * 
+	 * @return snapshot of the connection statistics or null if the SDK is not
+	 *         initialised or the transport doesn't keep statistics.
+	 */
+	public static ConnectionStats getConnectionStats() {
+		return DEFAULT_CLIENT.getConnectionStats();
 	}
 
 	/**
-	 * The userId that the SDK uses to track each individual user on the server.
+	 * Blocks until events that are being sent have been answered by the
+	 * server, e.g. so an upload can finish before your game shuts down. Events
+	 * still waiting for the next batch are not sent. Don't call this from the
+	 * UI thread.
 	 * 
-	 * @return the user id or null if the SDK is not initialised.
+	 * @param timeoutMillis
+	 *            maximum time to wait in milliseconds
+	 * @return true if all uploads finished, false if the timeout ran out or
+	 *         the SDK is not initialised.
 	 */
-	public static String getUserId() {
-		if (INITIALISED) {
-			return USER_ID;
-		} else {
-			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
-			return null;
-		}
+	public static boolean waitForUploads(long timeoutMillis) {
+		return DEFAULT_CLIENT.waitForUploads(timeoutMillis);
 	}
 
 	/**
@@ -1043,30 +1028,14 @@ public class GameAnalytics {
 	 * used in production. This call will block until the database is cleared.
 	 */
 	public static void clearDatabase() {
-		// Has to be initialised and context not null, but start session doesn't
-		// necessarily have to have been called.
-		if (INITIALISED && CONTEXT != null) {
-			EventDatabase.clear(CONTEXT);
-		} else {
-			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
-		}
-	}
-
-	protected static void setGoogleAID(String id) {
-		GOOGLE_AID = id;
-
-		// Use as main user id but respect custom, developer specified
-		// user_id
-		if (USER_ID == null) {
-			setUserId(id);
-		}
-		// Populate user ids of any events created before user id finalised
-		populateEventsWithNoUserId();
+		DEFAULT_CLIENT.clearDatabase();
 	}
 
-	protected static void setNewUser(boolean value) {
-		if (CONTEXT != null) {
-			SharedPreferences hash = CONTEXT.getSharedPreferences(
+	// Called while the database is being created in initialise(), before the
+	// snapshot has a context, so the context is passed in
+	protected static void setNewUser(Context context, boolean value) {
+		if (context != null) {
+			SharedPreferences hash = context.getSharedPreferences(
 					GAME_ANALYTICS_HASHSTORE, Context.MODE_PRIVATE);
 			SharedPreferences.Editor editor = hash.edit();
 			editor.putBoolean(NEW_USER, value);
@@ -1086,14 +1055,4 @@ public class GameAnalytics {
 	// }
 	// return false;
 	// }
-
-	protected static void disableAnalytics() {
-		// Currently only called if "LimitAdTracking" is enabled
-		// Completely disable analytics
-		DISABLED = true;
-	}
-
-	protected static boolean isDisabled() {
-		return DISABLED;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,905 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.provider.Settings.Secure;
+import android.text.format.Time;
+
+/**
+ * A separate GameAnalytics pipeline, for applications that send events for
+ * more than one game, e.g. a launcher hosting several mini-games. Each client
+ * has its own keys, settings, session, local database, batch thread and
+ * transport, so one game's traffic never holds up another's.
+ *
+ * The static methods of {@link GameAnalytics} act on a default client, see
+ * {@link GameAnalytics#getDefaultClient()}. The methods here behave the same
+ * as the static methods of the same name, which are documented in full, but
+ * only act on this client.
+ */
+public class GameAnalyticsClient {
+
+	// SETTINGS
+	private static final int DEFAULT_TIMER_FLUSH_INTERVAL = 60000; // 60 secs
+	private static final int DEFAULT_AGGREGATION_INTERVAL = 60000; // 60 secs
+
+	// PRECONFIGURED EVENTS
+	private static final String FPS_EVENT_NAME = "GA:AverageFPS";
+	private static final String CRITICAL_FPS_EVENT_NAME = "GA:CriticalFPS";
+	private static final String FRAME_TIME_P50_EVENT_NAME = "GA:FrameTime:P50";
+	private static final String FRAME_TIME_P90_EVENT_NAME = "GA:FrameTime:P90";
+	private static final String FRAME_TIME_P99_EVENT_NAME = "GA:FrameTime:P99";
+	private static final String FRAME_TIME_MAX_EVENT_NAME = "GA:FrameTime:Max";
+	private static final String JANK_FRAMES_EVENT_NAME = "GA:JankFrames";
+	private static final String ANDROID = "Android";
+	private static final String SDK_VERSION = "android 1.14.5";
+
+	// APP/DEVELOPER SPECIFIC
+	// Keys, ids, session state and batching settings. Read config once into
+	// a local and use that, so all values come from the same snapshot. To
+	// change it, replace it with a modified copy while holding configLock.
+	private volatile Configuration config = new Configuration();
+	private final Object configLock = new Object();
+	private volatile int minimumFPSPeriod = 5000; // Default is 5 second
+	private volatile int criticalFPSLimit = 30; // Default is 30 frames
+
+	// PIPELINE
+	private final EventDatabase database;
+	private ExceptionLogger exceptionLogger;
+	private final FrameTimeProfiler frameProfiler = new FrameTimeProfiler();
+	private final PerformanceTimers timers;
+	private final DesignEventAggregator aggregator;
+	private final HeatmapAggregator heatmap;
+	private final EventSampler sampler = new EventSampler();
+	private final RateLimiter rateLimiter;
+	private final DesignEventSketches sketches;
+	private final ArrayList<PostResponseHandler> finishedSendingEvents = new ArrayList<PostResponseHandler>();
+	private boolean canStartNewThread = true;
+
+	// AGGREGATION
+	// One thread flushes all of the aggregators. Those sharing the
+	// aggregation interval are flushed on the same tick, so they cover the
+	// same window. Nothing is scheduled until an aggregator takes in a value.
+	private final ScheduledThreadPoolExecutor flushScheduler;
+	private final AtomicBoolean aggregationFlushScheduled = new AtomicBoolean();
+	private final AtomicBoolean timerFlushScheduled = new AtomicBoolean();
+	private volatile int aggregationInterval = DEFAULT_AGGREGATION_INTERVAL;
+	private volatile int timerFlushInterval = DEFAULT_TIMER_FLUSH_INTERVAL;
+	private final Runnable aggregationFlushTask = new Runnable() {
+		public void run() {
+			flushAggregates();
+		}
+	};
+	private final Runnable timerFlushTask = new Runnable() {
+		public void run() {
+			flushTimers();
+		}
+	};
+
+	/**
+	 * @param name
+	 *            names the client's local database, so use the same name every
+	 *            time the application runs to send events left over from the
+	 *            last run. Each client in the process needs a different name.
+	 *            Null uses the database of the default client.
+	 */
+	public GameAnalyticsClient(String name) {
+		database = new EventDatabase(name);
+		timers = new PerformanceTimers(this);
+		aggregator = new DesignEventAggregator(this, database.getSymbols());
+		heatmap = new HeatmapAggregator(this, database.getSymbols());
+		rateLimiter = new RateLimiter(this);
+		sketches = new DesignEventSketches(this);
+		flushScheduler = new ScheduledThreadPoolExecutor(1);
+		flushScheduler.setKeepAliveTime(30, TimeUnit.SECONDS);
+		// allowCoreThreadTimeOut() needs API 9
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			flushScheduler.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	public void initialise(Context context, String secretKey, String gameKey) {
+		// Get build version from AndroidManifest.xml
+		String build;
+		try {
+			build = context.getPackageManager().getPackageInfo(
+					context.getPackageName(), 0).versionName;
+		} catch (NameNotFoundException e) {
+			GALog.w("Warning: android:versionName tag is not set correctly in Android Manifest.");
+			build = "unknown";
+		}
+		// Pass on to full initialise method
+		initialise(context, secretKey, gameKey, build);
+	}
+
+	public void initialise(Context context, String secretKey, String gameKey,
+			String build) {
+		initialise(context, secretKey, gameKey, build,
+				GameAnalytics.SAFE_DATABASE_PROFILE);
+	}
+
+	public void initialise(Context context, String secretKey, String gameKey,
+			String build, DatabaseProfile databaseProfile) {
+		if (config.isInitialised()) {
+			GALog.w("Game Analytics already initialised.");
+			return;
+		}
+		// Get reference to first context
+		Context applicationContext = context.getApplicationContext();
+
+		// Get user id
+		String unhashedAndroidId = Secure.getString(
+				context.getContentResolver(), Secure.ANDROID_ID);
+
+		// Initialise other variables
+		Transport transport = config.getTransport();
+		if (transport == null) {
+			transport = new AsyncHttpClientTransport(applicationContext);
+		}
+		exceptionLogger = new ExceptionLogger(this, Thread.currentThread()
+				.getUncaughtExceptionHandler());
+
+		// Force database to get writable database now. This also makes it
+		// perform existing user check for Google AID next
+		database.initialise(applicationContext, databaseProfile);
+
+		// Set game and secret keys and build and set initialised,
+		// newEvent() can only be called after initialise() and startSession()
+		synchronized (configLock) {
+			config = config.initialise(applicationContext, transport,
+					gameKey + "/", secretKey, build, unhashedAndroidId);
+		}
+
+		// Google AID - Is it available?
+		GetGoogleAIDAsync getGAIDAsync = new GetGoogleAIDAsync(this,
+				applicationContext);
+		getGAIDAsync.execute();
+	}
+
+	// Called under the following circumstances:
+	// 1. If user first used app prior to version 1.14.0 the database will be
+	// detected and the UUID will continue to be used.
+	// 2. If the Google AID is unavailable.
+	// 3. If the user opts out of tracking
+	protected void setUserIdToUUID() {
+		// Respect custom user_id
+		synchronized (configLock) {
+			if (config.getUserId() == null) {
+				config = config.withUserId(GameAnalytics.md5(config
+						.getUnhashedAndroidId()));
+			}
+		}
+
+		// Populate user ids of any events created before user id finalised
+		populateEventsWithNoUserId();
+	}
+
+	private void populateEventsWithNoUserId() {
+		// This functionality is here because getting the Google AID
+		// is an asynchronous process. Therefore any events created directly
+		// after calling initialise() will have user_id = "null". This code will
+		// fill them in with the new id.
+		Configuration config = this.config;
+		if (config.getUserId() != null) {
+			if (ready(config)) {
+				database.populateEventsWithNoUserId(config.getUserId(),
+						config.getGoogleAID(), config.getContext());
+			} else {
+				GALog.w("Warning: trying to fill in events with no user id but Game Analytics is not initialised.");
+			}
+		} else {
+			GALog.w("Warning: trying to fill in events with no user id but user id is still null.");
+		}
+	}
+
+	public boolean isInitialised() {
+		return config.isInitialised();
+	}
+
+	public boolean isSessionStarted() {
+		return config.isSessionStarted();
+	}
+
+	public void startSession(Context context) {
+		boolean newSession;
+		synchronized (configLock) {
+			Configuration config = this.config;
+
+			// Current time:
+			long nowTime = System.currentTimeMillis();
+
+			// Need to get a new sessionId?
+			newSession = config.getSessionId() == null
+					|| (config.getSessionEndTime() != 0 && nowTime > config
+							.getSessionEndTime());
+
+			// Update current context, set up unique session id if needed
+			this.config = config.startSession(context.getApplicationContext(),
+					context.getClass().getSimpleName(),
+					newSession ? getSessionId(config) : null);
+		}
+
+		if (newSession) {
+			GALog.i("Starting new session");
+
+			// Send off model and OS version
+			sendOffUserStats();
+		}
+	}
+
+	public void stopSession() {
+		// sessionTimeOut is some time after now
+		synchronized (configLock) {
+			config = config.stopSession(System.currentTimeMillis()
+					+ config.getSessionTimeOut());
+		}
+		// Don't leave timings and aggregates waiting for the next flush while
+		// paused
+		flushTimers();
+		flushAggregates();
+	}
+
+	// Called by the aggregators whenever they take in a value
+	protected void scheduleAggregationFlush() {
+		if (!aggregationFlushScheduled.get()
+				&& aggregationFlushScheduled.compareAndSet(false, true)) {
+			flushScheduler.schedule(aggregationFlushTask, aggregationInterval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// Called by the timers whenever one is stopped
+	protected void scheduleTimerFlush() {
+		if (!timerFlushScheduled.get()
+				&& timerFlushScheduled.compareAndSet(false, true)) {
+			flushScheduler.schedule(timerFlushTask, timerFlushInterval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flushAggregates() {
+		// Cleared first, so values taken in during the flush schedule the
+		// next one
+		aggregationFlushScheduled.set(false);
+		aggregator.flush();
+		sketches.flush();
+		heatmap.flush();
+		rateLimiter.flush();
+	}
+
+	private void flushTimers() {
+		timerFlushScheduled.set(false);
+		timers.flush();
+	}
+
+	public void newDesignEvent(String eventId, Float value, String area,
+			Float x, Float y, Float z) {
+		Configuration config = this.config;
+		if (ready(config)
+				&& sampler.keep(GameAnalytics.DESIGN, eventId,
+						config.getUserId())) {
+			// Counters, gauges and quantiles are collated in memory, unless
+			// the position is wanted, heatmaps are binned
+			if (x == null && y == null && z == null) {
+				if (sketches.add(eventId, value)
+						|| aggregator.fold(eventId, value, area)) {
+					return;
+				}
+			} else if (heatmap.fold(eventId, area, x, y, z)) {
+				return;
+			}
+			if (!rateLimiter.acquire(eventId)) {
+				return;
+			}
+			GALog.i("New design event: " + eventId + ", value: " + value
+					+ ", area: " + area + ", pos: (" + x + ", " + y + ", " + z
+					+ ")");
+			// Ensure we have a BatchThread ready to receive events
+			startThreadIfReq(config);
+
+			// Add design event to batch stack
+			database.addDesignEvent(config.getGameKey(),
+					config.getSecretKey(), config.getUserId(),
+					config.getSessionId(), config.getBuild(), eventId, area, x,
+					y, z, value, config.getContext());
+		}
+	}
+
+	// Called by the aggregators with the result of each window
+	protected void addAggregatedDesignEvent(String eventId, Float value,
+			String area) {
+		addAggregatedDesignEvent(eventId, value, area, null, null, null);
+	}
+
+	protected void addAggregatedDesignEvent(String eventId, Float value,
+			String area, Float x, Float y, Float z) {
+		Configuration config = this.config;
+		if (ready(config)) {
+			GALog.i("New aggregated design event: " + eventId + ", value: "
+					+ value + ", area: " + area + ", pos: (" + x + ", " + y
+					+ ", " + z + ")");
+			startThreadIfReq(config);
+			database.addDesignEvent(config.getGameKey(),
+					config.getSecretKey(), config.getUserId(),
+					config.getSessionId(), config.getBuild(), eventId, area, x,
+					y, z, value, config.getContext());
+		}
+	}
+
+	public void newDesignEvent(String eventId) {
+		newDesignEvent(eventId, null);
+	}
+
+	public void newDesignEvent(String eventId, Float value) {
+		newDesignEvent(eventId, value, config.getArea(), null, null, null);
+	}
+
+	// Only for the deprecated GameAnalytics.newQualityEvent()
+	protected void newQualityEvent(String eventId, String message,
+			String area, Float x, Float y, Float z) {
+		Configuration config = this.config;
+		if (ready(config)
+				&& sampler.keep(GameAnalytics.QUALITY, eventId,
+						config.getUserId()) && rateLimiter.acquire(eventId)) {
+			GALog.i("New quality event: " + eventId + ", message: " + message
+					+ ", area: " + area + ", pos: (" + x + ", " + y + ", " + z
+					+ ")");
+			// Ensure we have a BatchThread ready to receive events
+			startThreadIfReq(config);
+
+			// Add quality event to batch stack
+			database.addQualityEvent(config.getGameKey(),
+					config.getSecretKey(), config.getUserId(),
+					config.getSessionId(), config.getBuild(), eventId, area, x,
+					y, z, message, config.getContext());
+		}
+	}
+
+	public void newErrorEvent(String message, Severity severity, String area,
+			Float x, Float y, Float z) {
+		Configuration config = this.config;
+		if (ready(config)
+				&& sampler.keep(GameAnalytics.ERROR, null, config.getUserId())
+				&& rateLimiter.acquire(GameAnalytics.ERROR)) {
+			if (doErrorSeverityCheck(severity)) {
+				GALog.i("New error event: message: " + message + ", severity: "
+						+ severity + ", area: " + area + ", pos: (" + x + ", "
+						+ y + ", " + z + ")");
+				// Ensure we have a BatchThread ready to receive events
+				startThreadIfReq(config);
+
+				// Add quality event to batch stack
+				database.addErrorEvent(config.getGameKey(),
+						config.getSecretKey(), config.getUserId(),
+						config.getSessionId(), config.getBuild(), area, x, y, z,
+						message, severity.toString(), config.getContext());
+			}
+		}
+	}
+
+	public void newErrorEvent(String message, Severity severity) {
+		newErrorEvent(message, severity, config.getArea(), null, null, null);
+	}
+
+	// This is the privately accessible method to send all user event data.
+	// Developers should use the following publically available ones:
+	// 1. setUserInfo(char gender, int birthYear, int friendCount)
+	// 2. setReferralInfo(String installPublisher, String installSite, String
+	// installCampaign, String installAd, String installKeyword)
+	protected void newUserEvent(Character gender, Integer birthYear,
+			Integer friendCount, String area, Float x, Float y, Float z,
+			String platform, String device, String osMajor, String osMinor,
+			String sdkVersion, String installPublisher, String installSite,
+			String installCampaign, String installAdgroup, String installAd,
+			String installKeyword, String androidId, String googleAID) {
+		Configuration config = this.config;
+		if (ready(config)
+				&& sampler.keep(GameAnalytics.USER, null, config.getUserId())
+				&& rateLimiter.acquire(GameAnalytics.USER)) {
+			GALog.i("New user event: gender: " + gender + ", birth_year: "
+					+ birthYear + ", friend_count: " + friendCount + ", area: "
+					+ area + ", pos: (" + x + ", " + y + ", " + z + "), "
+					+ platform + ", device: " + device + ", os_major: "
+					+ osMajor + ", os_minor: " + osMinor + ", sdk_version :"
+					+ sdkVersion + ", install_publisher: " + installPublisher
+					+ ", install_site: " + installSite + ", install_campaign: "
+					+ installCampaign + ", install_adgroup: " + installAdgroup
+					+ ", install_ad: " + installAd + ", install_keyword: "
+					+ installKeyword + ", android_id: " + androidId
+					+ ", google_aid: " + googleAID + ")");
+			// Ensure we have a BatchThread ready to receive events
+			startThreadIfReq(config);
+
+			// Add user event to batch stack
+			database.addUserEvent(config.getGameKey(), config.getSecretKey(),
+					config.getUserId(), config.getSessionId(),
+					config.getBuild(), area, x, y, z, gender, birthYear,
+					friendCount, platform, device, osMajor, osMinor,
+					sdkVersion, installPublisher, installSite, installCampaign,
+					installAdgroup, installAd, installKeyword, androidId,
+					googleAID, config.getContext());
+		}
+	}
+
+	private static boolean doErrorSeverityCheck(Severity severity) {
+		if (GameAnalytics.CRITICAL_SEVERITY == severity
+				|| GameAnalytics.ERROR_SEVERITY == severity
+				|| GameAnalytics.WARNING_SEVERITY == severity
+				|| GameAnalytics.INFO_SEVERITY == severity
+				|| GameAnalytics.DEBUG_SEVERITY == severity) {
+			return true;
+		} else {
+			GALog.w("Warning: unsupported severity level passed into newErrorEvent(), use GameAnalyics.CRITICAL, GameAnalyics.ERROR etc.");
+			return false;
+		}
+	}
+
+	public void setUserInfo(Character gender, Integer birthYear,
+			Integer friendCount) {
+		newUserEvent(gender, birthYear, friendCount, config.getArea(), null,
+				null, null, null, null, null, null, null, null, null, null,
+				null, null, null, null, null);
+	}
+
+	public void setReferralInfo(String installPublisher, String installSite,
+			String installCampaign, String installAdgroup, String installAd,
+			String installKeyword) {
+		// User event for GA
+		newUserEvent(null, null, null, config.getArea(), null, null, null,
+				null, null, null, null, null, installPublisher, installSite,
+				installCampaign, installAdgroup, installAd, installKeyword,
+				null, null);
+	}
+
+	public void newBusinessEvent(String eventId, String currency, int amount,
+			String area, Float x, Float y, Float z) {
+		Configuration config = this.config;
+		if (ready(config)
+				&& sampler.keep(GameAnalytics.BUSINESS, eventId,
+						config.getUserId()) && rateLimiter.acquire(eventId)) {
+			GALog.i("New business event: " + eventId + ", currency: "
+					+ currency + ", amount: " + amount + ", area: " + area
+					+ ", pos: (" + x + ", " + y + ", " + z + ")");
+			// Ensure we have a BatchThread ready to receive events
+			startThreadIfReq(config);
+
+			// Add business event to batch stack
+			database.addBusinessEvent(config.getGameKey(),
+					config.getSecretKey(), config.getUserId(),
+					config.getSessionId(), config.getBuild(), eventId, area, x,
+					y, z, currency, amount, config.getContext());
+
+		}
+	}
+
+	public void newBusinessEvent(String eventId, String currency, int amount) {
+		newBusinessEvent(eventId, currency, amount, config.getArea(), null,
+				null, null);
+	}
+
+	public void setCategorySamplingRate(String category, double rate) {
+		sampler.setCategoryRate(category, rate);
+	}
+
+	public void setSamplingRate(String eventIdPrefix, double rate) {
+		sampler.setPrefixRate(eventIdPrefix, rate);
+	}
+
+	public void setSampleByUser(boolean value) {
+		sampler.setSampleByUser(value);
+	}
+
+	public void setRateLimit(int eventsPerSecond, int burst) {
+		rateLimiter.setLimit(eventsPerSecond, burst);
+	}
+
+	public void setGlobalRateLimit(int eventsPerSecond, int burst) {
+		rateLimiter.setGlobalLimit(eventsPerSecond, burst);
+	}
+
+	public void aggregateCounter(String eventId) {
+		aggregator.register(eventId, DesignEventAggregator.COUNTER);
+	}
+
+	public void aggregateGauge(String eventId) {
+		aggregator.register(eventId, DesignEventAggregator.GAUGE);
+	}
+
+	public void aggregateQuantiles(String eventId) {
+		sketches.register(eventId);
+	}
+
+	public void aggregateHeatmap(String eventId) {
+		heatmap.register(eventId);
+	}
+
+	public void setHeatmapCellSize(String area, float cellSize) {
+		if (cellSize > 0) {
+			heatmap.setCellSize(area, cellSize);
+		} else {
+			GALog.w("Warning: heatmap cell size must be greater than zero.");
+		}
+	}
+
+	public void setAggregationInterval(int millis) {
+		aggregationInterval = millis;
+	}
+
+	public void setSendEventsInterval(int millis) {
+		synchronized (configLock) {
+			config = config.withSendEventInterval(millis);
+		}
+	}
+
+	public void setNetworkPollInterval(int millis) {
+		synchronized (configLock) {
+			config = config.withNetworkPollInterval(millis);
+		}
+	}
+
+	public void setSessionTimeOut(int millis) {
+		synchronized (configLock) {
+			config = config.withSessionTimeOut(millis);
+		}
+	}
+
+	public void logFPS() {
+		if (frameProfiler.frame()) {
+			GALog.i("Start logging FPS.");
+		}
+	}
+
+	public void stopLoggingFPS(String area, Float x, Float y, Float z) {
+		if (ready(config)) {
+			GALog.i("Stop logging FPS.");
+			// Ensure we are logging FPS?
+			if (frameProfiler.isStarted()) {
+				// Get elapsed time
+				long elapsed = frameProfiler.stop() / 1000000;
+
+				// Has enough time elapsed?
+				if (elapsed > minimumFPSPeriod) {
+					// Work out average FPS and send
+					Float fps = frameProfiler.getFrameCount() * 1000f / elapsed;
+					newDesignEvent(FPS_EVENT_NAME, fps, area, x, y, z);
+					if (fps < criticalFPSLimit) {
+						// FPS is below critical limit
+						newDesignEvent(CRITICAL_FPS_EVENT_NAME, fps, area, x,
+								y, z);
+					}
+					// Frame time distribution, in milliseconds
+					newDesignEvent(FRAME_TIME_P50_EVENT_NAME,
+							frameProfiler.getPercentileMillis(50), area, x, y, z);
+					newDesignEvent(FRAME_TIME_P90_EVENT_NAME,
+							frameProfiler.getPercentileMillis(90), area, x, y, z);
+					newDesignEvent(FRAME_TIME_P99_EVENT_NAME,
+							frameProfiler.getPercentileMillis(99), area, x, y, z);
+					newDesignEvent(FRAME_TIME_MAX_EVENT_NAME,
+							frameProfiler.getMaxMillis(), area, x, y, z);
+					newDesignEvent(JANK_FRAMES_EVENT_NAME,
+							(float) frameProfiler.getJankCount(), area, x, y, z);
+				} else {
+					GALog.w("Warning: Insufficient time elapsed between starting and stopping FPS logging.");
+				}
+			} else {
+				GALog.w("Warning: stopLoggingFPS() was called before logFPS().");
+			}
+		}
+	}
+
+	public void stopLoggingFPS() {
+		stopLoggingFPS(config.getArea(), null, null, null);
+	}
+
+	public void setCriticalFPSLimit(int criticalFPS) {
+		criticalFPSLimit = criticalFPS;
+	}
+
+	public void setTargetFPS(int targetFPS) {
+		frameProfiler.setTargetFPS(targetFPS);
+	}
+
+	public long startTimer(String name) {
+		return timers.start(name);
+	}
+
+	public float stopTimer(long timer) {
+		long elapsed = timers.stop(timer);
+		return elapsed < 0 ? -1 : elapsed / 1000000f;
+	}
+
+	public void setTimerFlushInterval(int millis) {
+		timerFlushInterval = millis;
+	}
+
+	public void setMinimumFPSTimePeriod(int minimumTimePeriod) {
+		minimumFPSPeriod = minimumTimePeriod;
+	}
+
+	/**
+	 * Logs unhandled exceptions on the current thread to this client. A thread
+	 * can only log its exceptions to one client, the last one to call this.
+	 */
+	public void logUnhandledExceptions() {
+		Thread.currentThread().setUncaughtExceptionHandler(exceptionLogger);
+	}
+
+	public void setUserId(String userId) {
+		synchronized (configLock) {
+			config = config.withUserId(userId);
+		}
+	}
+
+	public void setTransport(Transport transport) {
+		synchronized (configLock) {
+			config = config.withTransport(transport);
+		}
+	}
+
+	public void setLocalCaching(boolean value) {
+		synchronized (configLock) {
+			config = config.withCacheLocally(value);
+		}
+	}
+
+	public void setAutoBatch(boolean value) {
+		synchronized (configLock) {
+			config = config.withAutoBatch(value);
+		}
+	}
+
+	public void setMaximumEventStorage(int max) {
+		database.setMaximumEventStorage(max);
+	}
+
+	public void setMaximumMessageLength(int max) {
+		database.setMaximumMessageLength(max);
+	}
+
+	public void manualBatch() {
+		Configuration config = this.config;
+		if (ready(config)) {
+			// Checked and set under the same lock as startThreadIfReq(), so
+			// only one batch thread runs at a time
+			synchronized (this) {
+				if (canStartNewThread) {
+					GALog.i("Starting manual batch.");
+					BatchThread sendEventThread = new BatchThread(this,
+							config.getContext(), config.getTransport(),
+							config.getGameKey(), config.getSecretKey(),
+							config.getSendEventInterval(),
+							config.getNetworkPollInterval(),
+							config.isCacheLocally());
+					canStartNewThread = false;
+					sendEventThread.manualBatch();
+				} else {
+					GALog.w("Warning: GameAnalytics batch thread already started, wait for it to finish before starting another.");
+				}
+			}
+		}
+	}
+
+	private static boolean ready(Configuration config) {
+		if (config.isInitialised()) {
+			if (config.isSessionStarted() && config.getContext() != null) {
+				if (!config.isDisabled()) {
+					return true;
+				} else {
+					GALog.i("Analytics have been disabled.");
+				}
+			} else {
+				GALog.w("Warning: GameAnalytics session has not started. 1. Have you called GameAnalytics.startSession(Context context) in onResume()? OR 2. Are you trying to send events prior to onResume() being called, for example in onCreate()? You need to call startSession() before sending your first event.");
+			}
+		} else {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+		}
+		return false;
+	}
+
+	// Generates session id from md5 hash of current time
+	private static String getSessionId(Configuration config) {
+		Time time = new Time();
+		time.setToNow();
+		return GameAnalytics.md5(config.getUserId() + time.toString());
+	}
+
+	// Synchronized as events arrive from the game's threads and the
+	// aggregators' flush thread at the same time
+	synchronized private void startThreadIfReq(Configuration config) {
+		// Only start new thread IF no batch (automatic or manual) is running
+		// AND auto-batch is switched on.
+		if (canStartNewThread && config.isAutoBatch()) {
+			BatchThread batchThread = new BatchThread(this,
+					config.getContext(), config.getTransport(),
+					config.getGameKey(), config.getSecretKey(),
+					config.getSendEventInterval(),
+					config.getNetworkPollInterval(), config.isCacheLocally());
+			batchThread.start();
+			canStartNewThread = false;
+		}
+	}
+
+	private void sendOffUserStats() {
+		// Automatically log version numbers, model and unhashed android id.
+		String versionString = android.os.Build.VERSION.RELEASE;
+		String shortVersion;
+		if (versionString.length() >= 3) {
+			shortVersion = versionString.substring(0, 3);
+		} else {
+			// Probably a preview build e.g. "L"
+			shortVersion = versionString;
+		}
+
+		Configuration config = this.config;
+		newUserEvent(null, null, null, config.getArea(), null, null, null,
+				ANDROID, android.os.Build.MODEL, shortVersion, versionString,
+				SDK_VERSION, null, null, null, null, null, null,
+				config.getUnhashedAndroidId(), config.getGoogleAID());
+	}
+
+	synchronized protected void sendingEvents(PostResponseHandler handler) {
+		GALog.i("Sending " + handler.getNumberOfEvents() + " "
+				+ handler.getCategory() + " events.");
+		finishedSendingEvents.add(handler);
+	}
+
+	synchronized protected void finishedSendingEvents(
+			PostResponseHandler handler) {
+		GALog.i("Finished sending " + handler.getNumberOfEvents() + " "
+				+ handler.getCategory() + " events.");
+		finishedSendingEvents.remove(handler);
+		checkIfNoEvents();
+	}
+
+	// True while responses to the last batch are still outstanding
+	synchronized protected boolean isSendingEvents() {
+		return !finishedSendingEvents.isEmpty();
+	}
+
+	synchronized protected void canStartNewThread() {
+		canStartNewThread = true;
+		finishedSendingEvents.clear();
+	}
+
+	synchronized protected void checkIfNoEvents() {
+		if (finishedSendingEvents.isEmpty()) {
+			canStartNewThread = true;
+			GALog.i("OK, ready to start new thread.");
+		}
+	}
+
+	public String getUserId() {
+		Configuration config = this.config;
+		if (config.isInitialised()) {
+			return config.getUserId();
+		} else {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+			return null;
+		}
+	}
+
+	public DatabaseStats getDatabaseStats() {
+		Configuration config = this.config;
+		if (config.isInitialised() && config.getContext() != null) {
+			return database.getStats(config.getContext());
+		} else {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+			return null;
+		}
+	}
+
+	public void warmUpConnection() {
+		Configuration config = this.config;
+		if (!config.isInitialised() || config.getContext() == null) {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+			return;
+		}
+		ConnectivityManager connectivityManager = (ConnectivityManager) config
+				.getContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+		if (networkInfo == null || !networkInfo.isConnected()) {
+			GALog.i("No network available, skipping connection warm-up");
+			return;
+		}
+		// Connecting over mobile data could wake the radio early and we can't
+		// tell whether it's already on, so only connect over Wi-Fi
+		boolean openConnection = networkInfo.getType() == ConnectivityManager.TYPE_WIFI;
+		GALog.i("Warming up connection, open connection: " + openConnection);
+		config.getTransport().warmUp(GameAnalytics.API_URL, openConnection);
+	}
+
+	public ConnectionStats getConnectionStats() {
+		Configuration config = this.config;
+		if (config.isInitialised() && config.getTransport() != null) {
+			return config.getTransport().getConnectionStats();
+		} else {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+			return null;
+		}
+	}
+
+	public boolean waitForUploads(long timeoutMillis) {
+		Configuration config = this.config;
+		if (!config.isInitialised() || config.getTransport() == null) {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+			return false;
+		}
+		try {
+			return config.getTransport().drain(timeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void clearDatabase() {
+		// Has to be initialised and context not null, but start session doesn't
+		// necessarily have to have been called.
+		Configuration config = this.config;
+		if (config.isInitialised() && config.getContext() != null) {
+			database.clear(config.getContext());
+		} else {
+			GALog.w("Warning: GameAnalytics has not been initialised. Call GameAnalytics.initialise(Context context, String secretKey, String gameKey) first");
+		}
+	}
+
+	protected void setGoogleAID(String id) {
+		synchronized (configLock) {
+			config = config.withGoogleAID(id);
+
+			// Use as main user id but respect custom, developer specified
+			// user_id
+			if (config.getUserId() == null) {
+				config = config.withUserId(id);
+			}
+		}
+		// Populate user ids of any events created before user id finalised
+		populateEventsWithNoUserId();
+	}
+
+	protected void disableAnalytics() {
+		// Currently only called if "LimitAdTracking" is enabled
+		// Completely disable analytics
+		synchronized (configLock) {
+			config = config.withDisabled(true);
+		}
+	}
+
+	protected boolean isDisabled() {
+		return config.isDisabled();
+	}
+
+	// Used by the overloads that default to the current activity
+	protected String getArea() {
+		return config.getArea();
+	}
+
+	protected EventDatabase getDatabase() {
+		return database;
+	}
+}
@@ -11,9 +11,11 @@ import com.google.android.gms.common.GooglePlayServicesRepairableException;
 
 public class GetGoogleAIDAsync extends AsyncTask<Void, Void, Void> {
 
+	private GameAnalyticsClient client;
 	private Context context;
 
-	public GetGoogleAIDAsync(Context context) {
+	public GetGoogleAIDAsync(GameAnalyticsClient client, Context context) {
+		this.client = client;
 		this.context = context;
 	}
 
@@ -25,32 +27,32 @@ public class GetGoogleAIDAsync extends AsyncTask<Void, Void, Void> {
 			adInfo = AdvertisingIdClient.getAdvertisingIdInfo(context);
 			if (adInfo.isLimitAdTrackingEnabled()) {
 				GALog.i("Google AID is available but user has opted out. Disabling analytics.");
-				GameAnalytics.disableAnalytics();
+				client.disableAnalytics();
 			} else {
 				GALog.i("Google AID is available. Using it.");
-				GameAnalytics.setGoogleAID(adInfo.getId());
+				client.setGoogleAID(adInfo.getId());
 			}
 		} catch (IOException e) {
 			// Unrecoverable error connecting to Google Play services (e.g.,
 			// the old version of the service doesn't support getting
 			// AdvertisingId).
 			GALog.i("Google AID is unavailable on this version of Google Play Services. Falling back to UUID.");
-			GameAnalytics.setUserIdToUUID();
+			client.setUserIdToUUID();
 		} catch (GooglePlayServicesNotAvailableException e) {
 			// Google Play services is not available entirely.
 			GALog.i("Google AID is entirely unavailable on this device. Falling back to UUID.");
-			GameAnalytics.setUserIdToUUID();
+			client.setUserIdToUUID();
 		} catch (IllegalStateException e) {
 			// Call was made on main thread - will not happen
 			GALog.e("Error retrieving Google AID, have you placed the necessary metatag in AndroidManifest.xml? See error:",
 					e);
 			GALog.i("Falling back to UUID.");
-			GameAnalytics.setUserIdToUUID();
+			client.setUserIdToUUID();
 		} catch (GooglePlayServicesRepairableException e) {
 			// Repairable exception but we don't want to force user to update
 			// just to get android ID, return null
 			GALog.i("Google Play Services is disabled or requires an update. Falling back to UUID.");
-			GameAnalytics.setUserIdToUUID();
+			client.setUserIdToUUID();
 		}
 		return null;
 	}
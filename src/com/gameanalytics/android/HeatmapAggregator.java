@@ -0,0 +1,282 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.HashMap;
+
+public class HeatmapAggregator {
+	// HEATMAP BINNING
+	// Positional design events with a registered id are counted per grid
+	// cell instead of being stored. Every aggregation interval each occupied
+	// cell is sent as one design event with the cell's centre as position
+	// and the number of events in it as value.
+	//
+	// Registered event ids are numbered and areas are interned in the
+	// EventDatabase symbol table. A cell key packs the event id symbol
+	// (8 bits), area symbol (13 bits) and the x, y and z cell indices
+	// (14 bits each) into a long. Counts are kept in an open-addressing table
+	// on that key, so binning an event is O(1) and doesn't allocate.
+	// Positions outside the grid and events arriving once the table is full
+	// are sent as normal. Changing a cell size sends the current window
+	// first, so every cell is sent with the size it was binned at.
+
+	private static final int CAPACITY_BITS = 10;
+	private static final int CAPACITY = 1 << CAPACITY_BITS;
+	private static final int MAX_EVENT_IDS = 256;
+	private static final int AREA_BITS = 13;
+	private static final long AREA_MASK = (1 << AREA_BITS) - 1;
+	private static final int CELL_BITS = 14;
+	private static final long CELL_MASK = (1 << CELL_BITS) - 1;
+	private static final int AREA_SHIFT = 3 * CELL_BITS;
+	private static final int EVENT_ID_SHIFT = AREA_SHIFT + AREA_BITS;
+	private static final long EMPTY = -1;
+	// Cell index for a missing coordinate, real indices are above it
+	private static final int MIN_CELL = -(1 << (CELL_BITS - 1));
+	private static final int MAX_CELL = (1 << (CELL_BITS - 1)) - 1;
+	private static final int NO_COORDINATE = MIN_CELL;
+	private static final float DEFAULT_CELL_SIZE = 1;
+
+	private final HashMap<String, Integer> eventIdSymbols = new HashMap<String, Integer>();
+	private final String[] eventIds = new String[MAX_EVENT_IDS];
+	private final HashMap<String, Float> cellSizes = new HashMap<String, Float>();
+	private float defaultCellSize = DEFAULT_CELL_SIZE;
+	private volatile boolean enabled;
+
+	private final long[] keys = new long[CAPACITY];
+	private final int[] counts = new int[CAPACITY];
+	private int size;
+
+	private final GameAnalyticsClient client;
+	private final SymbolTable symbols;
+
+	protected HeatmapAggregator(GameAnalyticsClient client, SymbolTable symbols) {
+		this.client = client;
+		this.symbols = symbols;
+		for (int i = 0; i < CAPACITY; i++) {
+			keys[i] = EMPTY;
+		}
+	}
+
+	protected synchronized void register(String eventId) {
+		if (eventIdSymbols.containsKey(eventId)) {
+			return;
+		}
+		if (eventIdSymbols.size() == MAX_EVENT_IDS) {
+			GALog.w("Warning: too many heatmap event ids, " + eventId
+					+ " will be sent as normal. The maximum is "
+					+ MAX_EVENT_IDS + ".");
+			return;
+		}
+		int symbol = eventIdSymbols.size();
+		eventIds[symbol] = eventId;
+		eventIdSymbols.put(eventId, symbol);
+		enabled = true;
+	}
+
+	/**
+	 * Sends the cells binned so far and then changes the cell size.
+	 * 
+	 * @param area
+	 *            area to set the cell size for, or null for the default
+	 */
+	protected void setCellSize(String area, float cellSize) {
+		Window window;
+		synchronized (this) {
+			window = takeWindow();
+			if (area == null) {
+				defaultCellSize = cellSize;
+			} else {
+				cellSizes.put(area, cellSize);
+			}
+		}
+		send(window);
+	}
+
+	/**
+	 * @return true if the event was binned, false if it should be stored as
+	 *         normal
+	 */
+	protected boolean fold(String eventId, String area, Float x, Float y,
+			Float z) {
+		if (!enabled) {
+			return false;
+		}
+		synchronized (this) {
+			Integer eventIdSymbol = eventIdSymbols.get(eventId);
+			if (eventIdSymbol == null) {
+				return false;
+			}
+			int areaSymbol = areaSymbol(area);
+			if (areaSymbol < 0) {
+				return false;
+			}
+			float cellSize = getCellSize(area);
+			int cx = cell(x, cellSize);
+			int cy = cell(y, cellSize);
+			int cz = cell(z, cellSize);
+			if (cx == Integer.MIN_VALUE || cy == Integer.MIN_VALUE
+					|| cz == Integer.MIN_VALUE) {
+				return false;
+			}
+
+			// The top bit is never set, so no key can equal EMPTY
+			long key = ((long) eventIdSymbol << EVENT_ID_SHIFT)
+					| ((long) areaSymbol << AREA_SHIFT)
+					| ((cx & CELL_MASK) << (2 * CELL_BITS))
+					| ((cy & CELL_MASK) << CELL_BITS) | (cz & CELL_MASK);
+			int slot = slot(key);
+			if (slot < 0) {
+				return false;
+			}
+			counts[slot]++;
+
+			client.scheduleAggregationFlush();
+			return true;
+		}
+	}
+
+	// Must be called while holding the lock
+	private float getCellSize(String area) {
+		if (area == null || cellSizes.isEmpty()) {
+			return defaultCellSize;
+		}
+		Float cellSize = cellSizes.get(area);
+		return cellSize != null ? cellSize : defaultCellSize;
+	}
+
+	// Integer.MIN_VALUE if the coordinate is off the grid or NaN
+	private static int cell(Float coordinate, float cellSize) {
+		if (coordinate == null) {
+			return NO_COORDINATE;
+		}
+		float index = (float) Math.floor(coordinate / cellSize);
+		// Written so that NaN fails the check too
+		if (!(index > NO_COORDINATE && index <= MAX_CELL)) {
+			return Integer.MIN_VALUE;
+		}
+		return (int) index;
+	}
+
+	// Sign extends a cell index unpacked from a key
+	private static int index(long key, int shift) {
+		int index = (int) ((key >>> shift) & CELL_MASK);
+		return index > MAX_CELL ? index - (1 << CELL_BITS) : index;
+	}
+
+	private static Float centre(int index, float cellSize) {
+		if (index == NO_COORDINATE) {
+			return null;
+		}
+		return (index + 0.5f) * cellSize;
+	}
+
+	// Symbol plus one so that no area is 0, -1 if the area can't be interned
+	// or its symbol doesn't fit in the key
+	private int areaSymbol(String area) {
+		if (area == null) {
+			return 0;
+		}
+		int symbol = symbols.intern(area);
+		if (symbol == SymbolTable.NONE || symbol + 1 > AREA_MASK) {
+			return -1;
+		}
+		return symbol + 1;
+	}
+
+	// Linear probing, -1 if the key is new and the table is full
+	private int slot(long key) {
+		int i = (int) (key ^ (key >>> 32)) * 0x9E3779B9 >>> (32 - CAPACITY_BITS);
+		while (keys[i] != key) {
+			if (keys[i] == EMPTY) {
+				// Keep one slot free so probing always terminates
+				if (size == CAPACITY - 1) {
+					return -1;
+				}
+				keys[i] = key;
+				size++;
+				return i;
+			}
+			i = (i + 1) & (CAPACITY - 1);
+		}
+		return i;
+	}
+
+	/**
+	 * Sends a design event for every cell occupied since the last flush and
+	 * starts a new window.
+	 */
+	protected void flush() {
+		Window window;
+		// Copy out under the lock, send without it
+		synchronized (this) {
+			window = takeWindow();
+		}
+		send(window);
+	}
+
+	private static class Window {
+		private String[] eventIds;
+		private String[] areas;
+		private Float[] x;
+		private Float[] y;
+		private Float[] z;
+		private int[] counts;
+		private int size;
+	}
+
+	// Must be called while holding the lock, empties the table
+	private Window takeWindow() {
+		Window window = new Window();
+		window.eventIds = new String[size];
+		window.areas = new String[size];
+		window.x = new Float[size];
+		window.y = new Float[size];
+		window.z = new Float[size];
+		window.counts = new int[size];
+		int n = 0;
+		for (int i = 0; i < CAPACITY; i++) {
+			long key = keys[i];
+			if (key == EMPTY) {
+				continue;
+			}
+			String area = symbols.get((int) ((key >>> AREA_SHIFT) & AREA_MASK) - 1);
+			float cellSize = getCellSize(area);
+			window.eventIds[n] = eventIds[(int) (key >>> EVENT_ID_SHIFT)];
+			window.areas[n] = area;
+			window.x[n] = centre(index(key, 2 * CELL_BITS), cellSize);
+			window.y[n] = centre(index(key, CELL_BITS), cellSize);
+			window.z[n] = centre(index(key, 0), cellSize);
+			window.counts[n] = counts[i];
+			n++;
+			keys[i] = EMPTY;
+			counts[i] = 0;
+		}
+		window.size = n;
+		size = 0;
+		return window;
+	}
+
+	private void send(Window window) {
+		for (int i = 0; i < window.size; i++) {
+			client.addAggregatedDesignEvent(window.eventIds[i],
+					(float) window.counts[i], window.areas[i], window.x[i],
+					window.y[i], window.z[i]);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/* 
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Transport} built on java.net.HttpURLConnection, which pools
+ * keep-alive connections for us. Has no Android dependencies.
+ */
+public class HttpURLConnectionTransport implements Transport {
+
+	private static final int DEFAULT_MAX_CONNECTIONS = 4;
+	private static final int DEFAULT_MAX_QUEUED_REQUESTS = 50;
+	private static final int DEFAULT_TIMEOUT = 10 * 1000;
+	private static final int BUFFER_SIZE = 4096;
+
+	private final ThreadPoolExecutor executor;
+	private final int timeout;
+	private final Object inFlightLock = new Object();
+	private int inFlight;
+
+	public HttpURLConnectionTransport() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            maximum number of requests sent at once
+	 * @param timeout
+	 *            connect and read timeout in milliseconds
+	 */
+	public HttpURLConnectionTransport(int maxConnections, int timeout) {
+		this.timeout = timeout;
+		executor = new ThreadPoolExecutor(maxConnections, maxConnections, 30,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+						DEFAULT_MAX_QUEUED_REQUESTS));
+		try {
+			executor.allowCoreThreadTimeOut(true);
+		} catch (NoSuchMethodError e) {
+			// Added in API 9, older devices keep their idle threads
+		}
+	}
+
+	public void post(final String url, final byte[] body,
+			final Map<String, String> headers, final ResponseListener listener) {
+		requestStarted();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						send(url, body, headers, listener);
+					} finally {
+						requestFinished();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			requestFinished();
+			listener.onFailure(e);
+		}
+	}
+
+	public boolean drain(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (inFlightLock) {
+			while (inFlight > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				inFlightLock.wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	private void requestStarted() {
+		synchronized (inFlightLock) {
+			inFlight++;
+		}
+	}
+
+	private void requestFinished() {
+		synchronized (inFlightLock) {
+			inFlight--;
+			if (inFlight == 0) {
+				inFlightLock.notifyAll();
+			}
+		}
+	}
+
+	public void postAll(List<Post> posts) {
+		for (Post post : posts) {
+			post(post.url, post.body, post.headers, post.listener);
+		}
+	}
+
+	public int getRemainingCapacity() {
+		int idleWorkers = executor.getMaximumPoolSize()
+				- executor.getActiveCount();
+		return Math.max(idleWorkers, 0)
+				+ executor.getQueue().remainingCapacity();
+	}
+
+	// HttpURLConnection can't open a connection without sending a request,
+	// so only the host lookup is done. The platform caches the result.
+	public void warmUp(final String url, boolean openConnection) {
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						InetAddress.getByName(new URL(url).getHost());
+					} catch (IOException e) {
+						// Only a warm-up, the first post will try again
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Busy sending already, no need to warm up
+		}
+	}
+
+	public ConnectionStats getConnectionStats() {
+		return null;
+	}
+
+	private void send(String url, byte[] body, Map<String, String> headers,
+			ResponseListener listener) {
+		int statusCode;
+		String responseBody;
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			connection.setFixedLengthStreamingMode(body.length);
+			for (Entry<String, String> header : headers.entrySet()) {
+				connection.setRequestProperty(header.getKey(),
+						header.getValue());
+			}
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+			statusCode = connection.getResponseCode();
+			InputStream in = statusCode >= 400 ? connection.getErrorStream()
+					: connection.getInputStream();
+			// Reading the body to the end lets the connection be reused
+			responseBody = readFully(in);
+		} catch (IOException e) {
+			if (connection != null) {
+				// Don't return a broken connection to the pool
+				connection.disconnect();
+			}
+			listener.onFailure(e);
+			return;
+		}
+		listener.onResponse(statusCode, responseBody);
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		if (in == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = in.read(buffer)) != -1) {
+				out.write(buffer, 0, length);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LogLinearBuckets {
+	// Bucket layout shared by the frame time and timer histograms. Values
+	// (usually microseconds) go into log-linear buckets: each power of two is
+	// split into SUB_BUCKETS linear steps, so a bucket is never more than
+	// 1/SUB_BUCKETS (12.5%) wide relative to its value. This covers 0 to 2^28
+	// (over four minutes in microseconds) in about two hundred buckets,
+	// anything larger goes into the last bucket.
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int OCTAVES = 25;
+	protected static final int BUCKETS = (OCTAVES + 1) * SUB_BUCKETS;
+
+	protected static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+				+ (int) ((value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return Math.min(index, BUCKETS - 1);
+	}
+
+	protected static float bucketMidpoint(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) / 2f;
+	}
+
+	/**
+	 * Moves the counts in histogram[offset, offset + BUCKETS) into counts,
+	 * zeroing the histogram.
+	 * 
+	 * @return total of the counts moved
+	 */
+	protected static long drain(AtomicLongArray histogram, int offset,
+			long[] counts) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = histogram.getAndSet(offset + i, 0);
+			total += counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @param counts
+	 *            bucket counts, as filled in by drain()
+	 * @param total
+	 *            sum of counts
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return midpoint of the bucket holding the given percentile, or 0 if
+	 *         there are no counts
+	 */
+	protected static float percentile(long[] counts, long total,
+			double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return bucketMidpoint(i);
+			}
+		}
+		return bucketMidpoint(BUCKETS - 1);
+	}
+}
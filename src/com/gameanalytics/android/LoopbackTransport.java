@@ -0,0 +1,99 @@
+/* 
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Transport} for testing and benchmarking that never touches the
+ * network. Every post is answered immediately, on the calling thread, with
+ * a fixed response and counted.
+ */
+public class LoopbackTransport implements Transport {
+
+	private int statusCode = 200;
+	private String responseBody = "";
+	private long postCount;
+	private long bytesPosted;
+	private String lastUrl;
+	private byte[] lastBody;
+
+	/**
+	 * Set the response returned for every subsequent post. The default is
+	 * 200 with an empty body.
+	 */
+	public synchronized void setResponse(int statusCode, String responseBody) {
+		this.statusCode = statusCode;
+		this.responseBody = responseBody;
+	}
+
+	public void post(String url, byte[] body, Map<String, String> headers,
+			ResponseListener listener) {
+		int status;
+		String response;
+		synchronized (this) {
+			postCount++;
+			bytesPosted += body.length;
+			lastUrl = url;
+			lastBody = body;
+			status = statusCode;
+			response = responseBody;
+		}
+		listener.onResponse(status, response);
+	}
+
+	public void postAll(List<Post> posts) {
+		for (Post post : posts) {
+			post(post.url, post.body, post.headers, post.listener);
+		}
+	}
+
+	public int getRemainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	public boolean drain(long timeoutMillis) {
+		// Every post is answered before it returns
+		return true;
+	}
+
+	public void warmUp(String url, boolean openConnection) {
+	}
+
+	public ConnectionStats getConnectionStats() {
+		return null;
+	}
+
+	public synchronized long getPostCount() {
+		return postCount;
+	}
+
+	public synchronized long getBytesPosted() {
+		return bytesPosted;
+	}
+
+	public synchronized String getLastUrl() {
+		return lastUrl;
+	}
+
+	public synchronized byte[] getLastBody() {
+		return lastBody;
+	}
+}
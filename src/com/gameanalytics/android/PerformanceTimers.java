@@ -0,0 +1,169 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class PerformanceTimers {
+	// PERFORMANCE TIMERS
+	// Each timer name gets a slot the first time it is started. Durations are
+	// folded into that slot's count, sum, min, max and histogram, all held in
+	// arrays allocated up front, so start() and stop() only read the clock
+	// and do a few atomic adds.
+	//
+	// start() returns the slot and start time packed into a long:
+	// bits 48-62 hold the slot, bits 0-47 the start time in nanoseconds
+	// since BASE_NANOS (enough for 78 hours).
+	//
+	// The first stop() after a flush has the client schedule the next flush,
+	// so nothing runs while no timers are in use.
+
+	protected static final long INVALID_TIMER = -1;
+
+	private static final int MAX_TIMERS = 64;
+	private static final int SLOT_SHIFT = 48;
+	private static final long TIME_MASK = (1L << SLOT_SHIFT) - 1;
+	private static final long BASE_NANOS = System.nanoTime();
+	private static final String COUNT_SUFFIX = ":Count";
+	private static final String MEAN_SUFFIX = ":Mean";
+	private static final String MIN_SUFFIX = ":Min";
+	private static final String MAX_SUFFIX = ":Max";
+	private static final String P50_SUFFIX = ":P50";
+	private static final String P90_SUFFIX = ":P90";
+
+	private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+	private final String[] names = new String[MAX_TIMERS];
+	private int slotCount;
+
+	private final AtomicLongArray counts = new AtomicLongArray(MAX_TIMERS);
+	private final AtomicLongArray sums = new AtomicLongArray(MAX_TIMERS);
+	private final AtomicLongArray mins = new AtomicLongArray(MAX_TIMERS);
+	private final AtomicLongArray maxs = new AtomicLongArray(MAX_TIMERS);
+	// Bucketed in microseconds, LogLinearBuckets.BUCKETS per slot
+	private final AtomicLongArray histograms = new AtomicLongArray(MAX_TIMERS
+			* LogLinearBuckets.BUCKETS);
+
+	private final GameAnalyticsClient client;
+
+	// Only used while flushing, flushes never overlap
+	private final long[] flushCounts = new long[LogLinearBuckets.BUCKETS];
+
+	protected PerformanceTimers(GameAnalyticsClient client) {
+		this.client = client;
+		for (int i = 0; i < MAX_TIMERS; i++) {
+			mins.set(i, Long.MAX_VALUE);
+		}
+	}
+
+	protected long start(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = register(name);
+			if (slot == null) {
+				return INVALID_TIMER;
+			}
+		}
+		return ((long) slot << SLOT_SHIFT)
+				| ((System.nanoTime() - BASE_NANOS) & TIME_MASK);
+	}
+
+	/**
+	 * @return the duration in nanoseconds, or -1 for an invalid timer
+	 */
+	protected long stop(long timer) {
+		if (timer < 0) {
+			return -1;
+		}
+		long duration = ((System.nanoTime() - BASE_NANOS) - timer) & TIME_MASK;
+		int slot = (int) (timer >>> SLOT_SHIFT);
+		if (slot >= MAX_TIMERS) {
+			return -1;
+		}
+
+		counts.incrementAndGet(slot);
+		sums.addAndGet(slot, duration);
+		long current;
+		while (duration < (current = mins.get(slot))) {
+			if (mins.compareAndSet(slot, current, duration)) {
+				break;
+			}
+		}
+		while (duration > (current = maxs.get(slot))) {
+			if (maxs.compareAndSet(slot, current, duration)) {
+				break;
+			}
+		}
+		histograms.incrementAndGet(slot * LogLinearBuckets.BUCKETS
+				+ LogLinearBuckets.bucketIndex(duration / 1000));
+
+		client.scheduleTimerFlush();
+		return duration;
+	}
+
+	private synchronized Integer register(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			if (slotCount == MAX_TIMERS) {
+				GALog.w("Warning: too many timer names, " + name
+						+ " will not be timed. The maximum is " + MAX_TIMERS
+						+ ".");
+				return null;
+			}
+			names[slotCount] = name;
+			slot = slotCount++;
+			slots.put(name, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Sends the aggregates of every timer used since the last flush as
+	 * design events, values in milliseconds, and resets them.
+	 */
+	protected synchronized void flush() {
+		for (int slot = 0; slot < slotCount; slot++) {
+			long count = counts.getAndSet(slot, 0);
+			if (count == 0) {
+				continue;
+			}
+			long sum = sums.getAndSet(slot, 0);
+			long min = mins.getAndSet(slot, Long.MAX_VALUE);
+			long max = maxs.getAndSet(slot, 0);
+			long total = LogLinearBuckets.drain(histograms, slot
+					* LogLinearBuckets.BUCKETS, flushCounts);
+
+			String name = names[slot];
+			client.addAggregatedDesignEvent(name + COUNT_SUFFIX,
+					(float) count, null);
+			client.addAggregatedDesignEvent(name + MEAN_SUFFIX, sum
+					/ count / 1000000f, null);
+			client.addAggregatedDesignEvent(name + MIN_SUFFIX,
+					min / 1000000f, null);
+			client.addAggregatedDesignEvent(name + MAX_SUFFIX,
+					max / 1000000f, null);
+			client.addAggregatedDesignEvent(name + P50_SUFFIX, Math.min(
+					LogLinearBuckets.percentile(flushCounts, total, 50) / 1000f,
+					max / 1000000f), null);
+			client.addAggregatedDesignEvent(name + P90_SUFFIX, Math.min(
+					LogLinearBuckets.percentile(flushCounts, total, 90) / 1000f,
+					max / 1000000f), null);
+		}
+	}
+}
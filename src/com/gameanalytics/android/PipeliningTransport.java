@@ -0,0 +1,444 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Transport} that sends all the requests of a batch back-to-back on
+ * one HTTP/1.1 keep-alive connection and then reads the responses in order,
+ * so a batch costs about one round trip instead of one per category. Only
+ * plain http is pipelined. Single posts, https and hosts that close the
+ * connection early are sent through a fallback transport one at a time.
+ * Requests that were written but not answered are reported as failures
+ * rather than sent again, since the server may already have recorded them.
+ */
+public class PipeliningTransport implements Transport {
+
+	private static final int DEFAULT_TIMEOUT = 10 * 1000;
+	private static final int DEFAULT_MAX_QUEUED_BATCHES = 10;
+	private static final int DEFAULT_HTTP_PORT = 80;
+	private static final String HEADER_CHARSET = "ISO-8859-1";
+	private static final String BODY_CHARSET = "UTF-8";
+
+	private final Transport fallback;
+	private final int timeout;
+	private final ThreadPoolExecutor executor;
+	// Hosts that didn't answer every pipelined request, only sent to through
+	// the fallback from then on
+	private final Set<String> unsupportedHosts = Collections
+			.synchronizedSet(new HashSet<String>());
+
+	public PipeliningTransport() {
+		this(new HttpURLConnectionTransport(), DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param fallback
+	 *            transport used for requests that can't be pipelined
+	 * @param timeout
+	 *            connect and read timeout in milliseconds
+	 */
+	public PipeliningTransport(Transport fallback, int timeout) {
+		this.fallback = fallback;
+		this.timeout = timeout;
+		executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(DEFAULT_MAX_QUEUED_BATCHES));
+		try {
+			executor.allowCoreThreadTimeOut(true);
+		} catch (NoSuchMethodError e) {
+			// Before API 9 the thread just stays alive
+		}
+	}
+
+	public void post(String url, byte[] body, Map<String, String> headers,
+			ResponseListener listener) {
+		fallback.post(url, body, headers, listener);
+	}
+
+	public void postAll(List<Post> posts) {
+		// Group by host, anything that can't be pipelined goes straight to the
+		// fallback
+		Map<String, List<Post>> hosts = new LinkedHashMap<String, List<Post>>();
+		List<Post> sequential = new ArrayList<Post>();
+		for (Post post : posts) {
+			String host = getPipelineHost(post.url);
+			if (host == null || unsupportedHosts.contains(host)) {
+				sequential.add(post);
+				continue;
+			}
+			List<Post> hostPosts = hosts.get(host);
+			if (hostPosts == null) {
+				hostPosts = new ArrayList<Post>();
+				hosts.put(host, hostPosts);
+			}
+			hostPosts.add(post);
+		}
+		for (final List<Post> hostPosts : hosts.values()) {
+			if (hostPosts.size() < 2) {
+				sequential.addAll(hostPosts);
+				continue;
+			}
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						sendPipelined(hostPosts);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				sequential.addAll(hostPosts);
+			}
+		}
+		fallback.postAll(sequential);
+	}
+
+	public int getRemainingCapacity() {
+		return fallback.getRemainingCapacity();
+	}
+
+	public boolean drain(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		// Pipelined batches run one at a time in order, so once this no-op has
+		// run every batch before it has been sent or handed to the fallback
+		try {
+			executor.submit(new Runnable() {
+				public void run() {
+				}
+			}).get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return false;
+		} catch (ExecutionException e) {
+			// Can't happen, nothing to throw
+		} catch (TimeoutException e) {
+			return false;
+		}
+		return fallback.drain(Math.max(deadline - System.currentTimeMillis(),
+				0));
+	}
+
+	public void warmUp(String url, boolean openConnection) {
+		fallback.warmUp(url, openConnection);
+	}
+
+	public ConnectionStats getConnectionStats() {
+		return fallback.getConnectionStats();
+	}
+
+	// Returns host:port for plain http URLs, null for anything else
+	private static String getPipelineHost(String url) {
+		try {
+			URL u = new URL(url);
+			if (!"http".equals(u.getProtocol())) {
+				return null;
+			}
+			return u.getHost() + ":" + getPort(u);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private static int getPort(URL url) {
+		return url.getPort() == -1 ? DEFAULT_HTTP_PORT : url.getPort();
+	}
+
+	private void sendPipelined(List<Post> posts) {
+		URL first;
+		try {
+			first = new URL(posts.get(0).url);
+		} catch (MalformedURLException e) {
+			fallback.postAll(posts);
+			return;
+		}
+		String host = first.getHost() + ":" + getPort(first);
+		// Requests from written on never reached the server and can be sent
+		// again, those before it may have been recorded already
+		int written = 0;
+		int answered = 0;
+		boolean connected = false;
+		IOException error = null;
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(first.getHost(),
+					getPort(first)), timeout);
+			connected = true;
+			socket.setSoTimeout(timeout);
+			socket.setTcpNoDelay(true);
+
+			// Write every request before reading any response
+			OutputStream out = new BufferedOutputStream(
+					socket.getOutputStream());
+			for (Post post : posts) {
+				URL url = new URL(post.url);
+				written++;
+				writeRequest(out, url, post);
+			}
+			out.flush();
+
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			while (answered < posts.size()) {
+				Response response = readResponse(in);
+				onResponse(posts.get(answered++), response);
+				if (response.close) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			GALog.i("Pipelined request to " + host + " failed: "
+					+ e.toString());
+			error = e;
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Already closed
+			}
+		}
+
+		if (answered < posts.size()) {
+			if (connected) {
+				GALog.i("Host " + host + " doesn't support pipelining, "
+						+ "sending requests one at a time.");
+				unsupportedHosts.add(host);
+			}
+			// The server may have recorded a request that was written but not
+			// answered, and sending it again would count its events twice, so
+			// it fails and its events stay in the database for the next batch
+			if (error == null) {
+				error = new IOException("Connection closed before response");
+			}
+			for (int i = answered; i < written; i++) {
+				onFailure(posts.get(i), error);
+			}
+			// Only requests that were never written are sent again now
+			if (written < posts.size()) {
+				fallback.postAll(new ArrayList<Post>(posts.subList(written,
+						posts.size())));
+			}
+		}
+	}
+
+	// A listener that throws mustn't stop the rest of the batch being answered
+	private static void onResponse(Post post, Response response) {
+		try {
+			post.listener.onResponse(response.statusCode, response.body);
+		} catch (RuntimeException e) {
+			GALog.e("Error handling response: " + e.toString(), e);
+		}
+	}
+
+	private static void onFailure(Post post, Throwable error) {
+		try {
+			post.listener.onFailure(error);
+		} catch (RuntimeException e) {
+			GALog.e("Error handling failure: " + e.toString(), e);
+		}
+	}
+
+	private static void writeRequest(OutputStream out, URL url, Post post)
+			throws IOException {
+		String path = url.getFile();
+		StringBuilder head = new StringBuilder();
+		head.append("POST ").append(path.length() == 0 ? "/" : path)
+				.append(" HTTP/1.1\r\n");
+		head.append("Host: ").append(url.getHost());
+		if (url.getPort() != -1) {
+			head.append(':').append(url.getPort());
+		}
+		head.append("\r\n");
+		head.append("Content-Length: ").append(post.body.length)
+				.append("\r\n");
+		for (Entry<String, String> header : post.headers.entrySet()) {
+			head.append(header.getKey()).append(": ")
+					.append(header.getValue()).append("\r\n");
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes(HEADER_CHARSET));
+		out.write(post.body);
+	}
+
+	private static Response readResponse(InputStream in) throws IOException {
+		Response response = new Response();
+		String statusLine;
+		// Skip any 1xx informational responses
+		do {
+			statusLine = readLine(in);
+			response.statusCode = parseStatusCode(statusLine);
+			readHeaders(in, response);
+		} while (response.statusCode >= 100 && response.statusCode < 200);
+
+		if (statusLine.startsWith("HTTP/1.0")) {
+			response.close = !response.keepAlive;
+		}
+
+		if (response.statusCode == 204 || response.statusCode == 304) {
+			response.body = null;
+		} else if (response.chunked) {
+			response.body = readChunkedBody(in);
+		} else if (response.contentLength >= 0) {
+			response.body = readBody(in, response.contentLength);
+		} else {
+			// Body runs to the end of the connection
+			response.body = readBody(in, -1);
+			response.close = true;
+		}
+		return response;
+	}
+
+	private static int parseStatusCode(String statusLine) throws IOException {
+		// e.g. "HTTP/1.1 200 OK"
+		int start = statusLine.indexOf(' ');
+		if (!statusLine.startsWith("HTTP/") || start == -1
+				|| statusLine.length() < start + 4) {
+			throw new IOException("Invalid status line: " + statusLine);
+		}
+		try {
+			return Integer.parseInt(statusLine.substring(start + 1, start + 4));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status line: " + statusLine);
+		}
+	}
+
+	private static void readHeaders(InputStream in, Response response)
+			throws IOException {
+		response.contentLength = -1;
+		response.chunked = false;
+		String line;
+		while ((line = readLine(in)).length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon == -1) {
+				continue;
+			}
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			if (name.equalsIgnoreCase("Content-Length")) {
+				try {
+					response.contentLength = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid Content-Length: " + value);
+				}
+			} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+				response.chunked = value.equalsIgnoreCase("chunked");
+			} else if (name.equalsIgnoreCase("Connection")) {
+				response.close = value.equalsIgnoreCase("close");
+				response.keepAlive = value.equalsIgnoreCase("keep-alive");
+			}
+		}
+	}
+
+	private static String readChunkedBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String sizeLine = readLine(in);
+			int extension = sizeLine.indexOf(';');
+			if (extension != -1) {
+				sizeLine = sizeLine.substring(0, extension);
+			}
+			int size;
+			try {
+				size = Integer.parseInt(sizeLine.trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + sizeLine);
+			}
+			if (size == 0) {
+				// Skip trailers
+				while (readLine(in).length() > 0) {
+				}
+				return body.toString(BODY_CHARSET);
+			}
+			copy(in, body, size);
+			readLine(in);
+		}
+	}
+
+	// Reads length bytes, or until the end of the stream if length is -1
+	private static String readBody(InputStream in, int length)
+			throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if (length == -1) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+		} else {
+			copy(in, body, length);
+		}
+		return body.toString(BODY_CHARSET);
+	}
+
+	private static void copy(InputStream in, ByteArrayOutputStream out,
+			int length) throws IOException {
+		byte[] buffer = new byte[Math.min(length, 4096) + 1];
+		while (length > 0) {
+			int read = in.read(buffer, 0, Math.min(length, buffer.length));
+			if (read == -1) {
+				throw new EOFException();
+			}
+			out.write(buffer, 0, read);
+			length -= read;
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c == -1) {
+				throw new EOFException();
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private static class Response {
+		int statusCode;
+		String body;
+		int contentLength;
+		boolean chunked;
+		boolean close;
+		boolean keepAlive;
+	}
+}
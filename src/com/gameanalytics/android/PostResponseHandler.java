@@ -18,14 +18,11 @@
 
 package com.gameanalytics.android;
 
-import java.util.ArrayList;
+import java.io.StringReader;
 
 import android.content.Context;
 
-import com.google.gson.Gson;
-import com.loopj.twicecircled.android.http.AsyncHttpResponseHandler;
-
-public class PostResponseHandler extends AsyncHttpResponseHandler {
+public class PostResponseHandler implements Transport.ResponseListener {
 
 	// ERRORS
 	private static final String BAD_REQUEST = "Not all required fields are present in the data.";
@@ -46,48 +43,54 @@ public class PostResponseHandler extends AsyncHttpResponseHandler {
 	private static final String INTERNAL_SERVER_ERROR_DESC = "Internal server error. Please bring this error to Game Analytics attention. We are sorry for any inconvenience caused.";
 	private static final String NOT_IMPLEMENTED_DESC = "The used HTTP method is not supported. Please only use the POST method for submitting data.";
 
-	private ArrayList<Integer> eventsToDelete;
+	private GameAnalyticsClient client;
+	private EventIdList eventsToDelete;
 	private String category;
 	private Context context;
 
-	public PostResponseHandler(ArrayList<Integer> eventsToDelete,
-			String category, Context context) {
+	public PostResponseHandler(GameAnalyticsClient client,
+			EventIdList eventsToDelete, String category, Context context) {
+		this.client = client;
 		this.category = category;
 		this.eventsToDelete = eventsToDelete;
 		this.context = context;
 	}
 
-	@Override
-	public void onStart() {
-
+	public void onResponse(int statusCode, String content) {
+		if (statusCode >= 200 && statusCode < 300) {
+			// Print response to log
+			GALog.i(category + " events: Succesful response: "
+					+ (content != null ? content : statusCode));
+			client.getDatabase().deleteSentEvents(eventsToDelete, category, context);
+		} else {
+			// Try convert error content into JSON
+			GALog.i(category + " events: Failure response: " + content);
+			ErrorResponse errorResponse = null;
+			if (content != null) {
+				errorResponse = ErrorResponse.fromJson(new StringReader(content));
+				if (errorResponse == null) {
+					// New codes for error response:
+					errorResponse = new ErrorResponse();
+					errorResponse.message = content;
+				}
+			}
+			logErrorResponse(statusCode, errorResponse);
+		}
+		client.finishedSendingEvents(this);
 	}
 
-	@Override
-	public void onFinish() {
-		GameAnalytics.finishedSendingEvents(this);
+	public void onErrorResponse(int statusCode, ErrorResponse errorResponse) {
+		GALog.i(category + " events: Failure response: " + statusCode);
+		logErrorResponse(statusCode, errorResponse);
+		client.finishedSendingEvents(this);
 	}
 
-	@Override
-	public void onSuccess(int statusCode, String content) {
-		// Print response to log
-		GALog.i(category + " events: Succesful response: " + content);
-		EventDatabase.deleteSentEvents(eventsToDelete, category, context);
+	public void onFailure(Throwable error) {
+		GALog.e("Error: " + error.toString(), error);
+		client.finishedSendingEvents(this);
 	}
 
-	@Override
-	public void onFailure(Throwable error, String content) {
-		// Try convert error content into JSON
-		GALog.i(category + " events: Failure response: " + content);
-		Gson gson = new Gson();
-		ErrorResponse errorResponse = null;
-		try {
-			errorResponse = gson.fromJson(content, ErrorResponse.class);
-		} catch (Exception e) {
-			// New codes for error response:
-			errorResponse = new ErrorResponse();
-			errorResponse.message = content;
-		}
-
+	private void logErrorResponse(int statusCode, ErrorResponse errorResponse) {
 		if (errorResponse != null) {
 			// Give advice based on error code
 			String errorDescription = null;
@@ -150,11 +153,10 @@ public class PostResponseHandler extends AsyncHttpResponseHandler {
 			} else {
 				GALog.i("Code: " + errorResponse.code);
 				GALog.i("Message: " + errorResponse.message);
-				GALog.e("Unrecognised response code: " + error.toString(),
-						error);
+				GALog.e("Unrecognised response code: " + statusCode);
 			}
 		} else {
-			GALog.e("Error: " + error.toString(), error);
+			GALog.e("Error: HTTP status " + statusCode);
 		}
 	}
 
@@ -33,6 +33,9 @@ public class QualityEvent{
 	// QUALITY
 	private String message;
 
+	// Large messages are stored separately and loaded just before sending
+	private transient boolean messageStored;
+
 	public QualityEvent(String user_id, String session_id, String build,
 			String event_id, String area, Float x, Float y, Float z,
 			String message) {
@@ -46,4 +49,17 @@ public class QualityEvent{
 		this.z = z;
 		this.message = message;
 	}
+
+	protected void setMessageStored(boolean messageStored) {
+		this.messageStored = messageStored;
+	}
+
+	protected boolean isMessageStored() {
+		return messageStored;
+	}
+
+	protected void setMessage(String message) {
+		this.message = message;
+		this.messageStored = false;
+	}
 }
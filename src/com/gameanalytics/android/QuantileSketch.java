@@ -0,0 +1,126 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class QuantileSketch {
+	// QUANTILE SKETCH
+	// Log histogram in the style of DDSketch. Bucket i covers
+	// (GAMMA^(i-1), GAMMA^i], so any quantile is returned to within
+	// RELATIVE_ACCURACY of its true value. Negative values use a mirrored set
+	// of buckets and values closer to zero than MIN_VALUE share a zero bucket.
+	// Values beyond the range are clamped into the outermost buckets. NaN and
+	// infinities are rejected.
+	//
+	// The bucket count is fixed, so memory is bounded (about 6K per sketch)
+	// and add() is an atomic increment, safe from any thread.
+
+	private static final double RELATIVE_ACCURACY = 0.02;
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY)
+			/ (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	private static final double MIN_VALUE = 1e-3;
+	// Enough to reach above 1e9
+	private static final int BINS = 768;
+	private static final int MIN_INDEX = (int) Math.ceil(Math.log(MIN_VALUE)
+			/ LOG_GAMMA);
+	// Negative buckets, then zero, then positive buckets
+	private static final int ZERO = BINS;
+	protected static final int SIZE = 2 * BINS + 1;
+
+	private final AtomicIntegerArray counts = new AtomicIntegerArray(SIZE);
+
+	/**
+	 * @return false if the value is NaN or infinite and was not added
+	 */
+	protected boolean add(float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			return false;
+		}
+		counts.incrementAndGet(index(value));
+		return true;
+	}
+
+	/**
+	 * Moves the counts into the given array, of length SIZE, zeroing the
+	 * sketch.
+	 *
+	 * @return total of the counts moved
+	 */
+	protected long drain(long[] into) {
+		long total = 0;
+		for (int i = 0; i < SIZE; i++) {
+			into[i] = counts.getAndSet(i, 0);
+			total += into[i];
+		}
+		return total;
+	}
+
+	protected static int index(float value) {
+		if (value > MIN_VALUE) {
+			return ZERO + 1 + bin(value);
+		} else if (value < -MIN_VALUE) {
+			return ZERO - 1 - bin(-value);
+		}
+		return ZERO;
+	}
+
+	private static int bin(double value) {
+		// Clamped before converting so huge values can't overflow the int
+		double bin = Math.ceil(Math.log(value) / LOG_GAMMA) - MIN_INDEX;
+		return (int) Math.min(Math.max(bin, 0), BINS - 1);
+	}
+
+	// Value with the same relative error to both bucket bounds
+	protected static float value(int index) {
+		if (index == ZERO) {
+			return 0;
+		}
+		int bin = index > ZERO ? index - ZERO - 1 : ZERO - 1 - index;
+		double upper = Math.pow(GAMMA, bin + MIN_INDEX);
+		float value = (float) (2 * upper / (GAMMA + 1));
+		return index > ZERO ? value : -value;
+	}
+
+	/**
+	 * @param counts
+	 *            bucket counts, as filled in by drain()
+	 * @param total
+	 *            sum of counts
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the given percentile, or 0 if there are no counts
+	 */
+	protected static float percentile(long[] counts, long total,
+			double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+		long seen = 0;
+		for (int i = 0; i < SIZE; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return value(i);
+			}
+		}
+		return value(SIZE - 1);
+	}
+}
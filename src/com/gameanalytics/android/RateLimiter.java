@@ -0,0 +1,156 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateLimiter {
+	// RATE LIMITING
+	// A token bucket per event id plus one shared by all events. An event
+	// needs a token from both, otherwise it is dropped. Dropped events are
+	// counted and every aggregation interval the count is sent as a single
+	// RATE_LIMITED_EVENT_NAME design event.
+	//
+	// Each bucket is a single AtomicLong holding the time at which it will be
+	// full again (the generic cell rate algorithm, equivalent to a token
+	// bucket). Taking a token is one compare-and-set, so there is no lock.
+	// Buckets are only allocated for event ids seen for the first time, at
+	// most MAX_BUCKETS of them, after which new ids only get the shared
+	// bucket.
+
+	private static final String RATE_LIMITED_EVENT_NAME = "GA:RateLimited";
+	private static final int MAX_BUCKETS = 1024;
+
+	private static class Bucket {
+		private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+	}
+
+	private static class Limit {
+		// Time for one token to come back, and for the bucket to fill
+		private final long intervalNanos;
+		private final long capacityNanos;
+
+		private Limit(int eventsPerSecond, int burst) {
+			intervalNanos = eventsPerSecond > 0 ? 1000000000L
+					/ eventsPerSecond : 0;
+			capacityNanos = intervalNanos * Math.max(burst, 1);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	private final Bucket globalBucket = new Bucket();
+	private volatile Limit limit;
+	private volatile Limit globalLimit;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile String lastDroppedId;
+	private final GameAnalyticsClient client;
+
+	// No limits until they are set
+	protected RateLimiter(GameAnalyticsClient client) {
+		this.client = client;
+		limit = new Limit(0, 0);
+		globalLimit = new Limit(0, 0);
+	}
+
+	/**
+	 * @param eventsPerSecond
+	 *            0 or less for no limit
+	 */
+	protected void setLimit(int eventsPerSecond, int burst) {
+		limit = new Limit(eventsPerSecond, burst);
+	}
+
+	/**
+	 * @param eventsPerSecond
+	 *            0 or less for no limit
+	 */
+	protected void setGlobalLimit(int eventsPerSecond, int burst) {
+		globalLimit = new Limit(eventsPerSecond, burst);
+	}
+
+	/**
+	 * @return true if the event is within the limits, false if it should be
+	 *         dropped
+	 */
+	protected boolean acquire(String eventId) {
+		long now = System.nanoTime();
+		Limit limit = this.limit;
+		if (limit.intervalNanos > 0 && eventId != null) {
+			Bucket bucket = buckets.get(eventId);
+			if (bucket == null && buckets.size() < MAX_BUCKETS) {
+				Bucket created = new Bucket();
+				bucket = buckets.putIfAbsent(eventId, created);
+				if (bucket == null) {
+					bucket = created;
+				}
+			}
+			if (bucket != null && !take(bucket, limit, now)) {
+				return drop(eventId);
+			}
+		}
+		// A token taken from the event id's bucket above is not given back
+		// if this fails, the event id was busy anyway
+		Limit globalLimit = this.globalLimit;
+		if (globalLimit.intervalNanos > 0
+				&& !take(globalBucket, globalLimit, now)) {
+			return drop(eventId);
+		}
+		return true;
+	}
+
+	private static boolean take(Bucket bucket, Limit limit, long now) {
+		AtomicLong fullAt = bucket.fullAt;
+		while (true) {
+			long current = fullAt.get();
+			// A new bucket, or one that has filled up again, starts from now
+			long start = current == Long.MIN_VALUE || current - now < 0 ? now
+					: current;
+			long next = start + limit.intervalNanos;
+			if (next - now > limit.capacityNanos) {
+				return false;
+			}
+			if (fullAt.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean drop(String eventId) {
+		dropped.incrementAndGet();
+		lastDroppedId = eventId;
+		client.scheduleAggregationFlush();
+		return false;
+	}
+
+	/**
+	 * Sends the number of events dropped since the last flush, if any.
+	 */
+	protected void flush() {
+		long count = dropped.getAndSet(0);
+		if (count > 0) {
+			GALog.w("Warning: " + count
+					+ " events were dropped for going over the rate limit, "
+					+ "e.g. " + lastDroppedId + ".");
+			client.addAggregatedDesignEvent(RATE_LIMITED_EVENT_NAME,
+					(float) count, null);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+public class SymbolTable {
+	// SYMBOL TABLE
+	// Maps strings that repeat from event to event (keys, user and session
+	// ids, build, event ids and areas) to small ints, so each is held and
+	// stored once. Symbols are kept in their own table and events refer to
+	// them by id. Ids never change while the process runs; symbols no event
+	// refers to any more are deleted the next time the database is opened
+	// and the rest renumbered from 0, so ids stay below MAX_SYMBOLS.
+	//
+	// Looking up a known string is a ConcurrentHashMap get() and resolving an
+	// id is an array read, neither locks. New symbols are written to the
+	// database by persist(), which the insert calls before writing an event
+	// that uses them.
+
+	protected static final int NONE = -1;
+
+	protected final static String TABLENAME = "symbols";
+	protected final static String ID = "_id";
+	protected final static String VALUE = "value";
+	protected final static String CREATE_TABLE = "create table " + TABLENAME
+			+ " (" + ID + " integer primary key not null," + VALUE
+			+ " text not null);";
+
+	// Beyond this strings are stored as they are
+	private static final int MAX_SYMBOLS = 4096;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	// Index is the id, replaced with a larger copy when full
+	private volatile String[] values = new String[64];
+	private int count;
+	private int persisted;
+	private volatile boolean loaded;
+
+	/**
+	 * @return the id for value, or NONE if value is null, the table is full,
+	 *         or the symbols haven't been loaded yet
+	 */
+	protected int intern(String value) {
+		if (value == null || !loaded) {
+			return NONE;
+		}
+		Integer id = ids.get(value);
+		if (id != null) {
+			return id;
+		}
+		return add(value);
+	}
+
+	/**
+	 * @return the value for the id, or null for NONE
+	 */
+	protected String get(int id) {
+		if (id == NONE) {
+			return null;
+		}
+		String[] current = values;
+		return id < current.length ? current[id] : null;
+	}
+
+	private synchronized int add(String value) {
+		Integer id = ids.get(value);
+		if (id != null) {
+			return id;
+		}
+		// Ids can have gaps if they couldn't be renumbered on load, so count
+		// the symbols rather than going by the highest id
+		if (ids.size() >= MAX_SYMBOLS) {
+			return NONE;
+		}
+		String[] current = values;
+		if (count == current.length) {
+			String[] larger = new String[current.length * 2];
+			System.arraycopy(current, 0, larger, 0, count);
+			current = larger;
+		}
+		current[count] = value;
+		values = current;
+		ids.put(value, count);
+		return count++;
+	}
+
+	/**
+	 * Drops symbols no event uses, renumbers the rest from 0 and reads them.
+	 * Called once, when the database is opened.
+	 *
+	 * @param symbolColumns
+	 *            columns of the events table holding symbol ids
+	 */
+	protected synchronized void load(SQLiteDatabase db, String eventsTable,
+			String[] symbolColumns) {
+		if (loaded) {
+			return;
+		}
+		StringBuilder used = new StringBuilder();
+		for (String column : symbolColumns) {
+			if (used.length() > 0) {
+				used.append(" union ");
+			}
+			used.append("select ").append(column).append(" from ")
+					.append(eventsTable).append(" where ").append(column)
+					.append(" is not null");
+		}
+		db.delete(TABLENAME, ID + " not in (" + used + ")", null);
+
+		int[] oldIds = new int[64];
+		String[] oldValues = new String[64];
+		int n = 0;
+		boolean gaps = false;
+		Cursor cursor = db.query(TABLENAME, new String[] { ID, VALUE }, null,
+				null, null, null, ID);
+		try {
+			while (cursor.moveToNext()) {
+				if (n == oldIds.length) {
+					int[] largerIds = new int[n * 2];
+					System.arraycopy(oldIds, 0, largerIds, 0, n);
+					oldIds = largerIds;
+					String[] largerValues = new String[n * 2];
+					System.arraycopy(oldValues, 0, largerValues, 0, n);
+					oldValues = largerValues;
+				}
+				oldIds[n] = cursor.getInt(0);
+				oldValues[n] = cursor.getString(1);
+				gaps |= oldIds[n] != n;
+				n++;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		// Ids of dropped symbols are taken back, the rest keep their order
+		boolean renumbered = false;
+		if (gaps) {
+			try {
+				renumber(db, eventsTable, symbolColumns, oldIds, oldValues, n);
+				renumbered = true;
+			} catch (SQLException e) {
+				GALog.e("Error renumbering symbols: " + e.toString(), e);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			int id = renumbered ? i : oldIds[i];
+			if (id >= values.length) {
+				String[] larger = new String[Math.max(values.length * 2,
+						id + 1)];
+				System.arraycopy(values, 0, larger, 0, count);
+				values = larger;
+			}
+			values[id] = oldValues[i];
+			ids.put(oldValues[i], id);
+			count = id + 1;
+		}
+		persisted = count;
+		loaded = true;
+	}
+
+	// Gives the n symbols read ids 0 to n-1, in the events table too
+	private static void renumber(SQLiteDatabase db, String eventsTable,
+			String[] symbolColumns, int[] oldIds, String[] oldValues, int n) {
+		GALog.i("Renumbering " + n + " symbols.");
+		db.beginTransaction();
+		try {
+			db.execSQL("create temp table symbol_ids (old integer primary key, new integer not null)");
+			SQLiteStatement statement = db
+					.compileStatement("insert into symbol_ids (old, new) values (?, ?)");
+			try {
+				for (int i = 0; i < n; i++) {
+					statement.bindLong(1, oldIds[i]);
+					statement.bindLong(2, i);
+					statement.executeInsert();
+				}
+			} finally {
+				statement.close();
+			}
+			for (String column : symbolColumns) {
+				db.execSQL("update " + eventsTable + " set " + column
+						+ " = (select new from symbol_ids where old = "
+						+ column + ") where " + column + " is not null");
+			}
+			db.execSQL("drop table symbol_ids");
+
+			db.delete(TABLENAME, null, null);
+			statement = db.compileStatement("insert into " + TABLENAME + " ("
+					+ ID + ", " + VALUE + ") values (?, ?)");
+			try {
+				for (int i = 0; i < n; i++) {
+					statement.bindLong(1, i);
+					statement.bindString(2, oldValues[i]);
+					statement.executeInsert();
+				}
+			} finally {
+				statement.close();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Writes symbols added since the last call. Must be called while holding
+	 * the EventDatabase lock, before inserting events that use them.
+	 */
+	protected void persist(SQLiteDatabase db) {
+		String[] current;
+		int start;
+		int end;
+		synchronized (this) {
+			if (persisted == count) {
+				return;
+			}
+			current = values;
+			start = persisted;
+			end = count;
+		}
+		SQLiteStatement statement = db.compileStatement("insert or replace into "
+				+ TABLENAME + " (" + ID + ", " + VALUE + ") values (?, ?)");
+		try {
+			for (int id = start; id < end; id++) {
+				statement.bindLong(1, id);
+				statement.bindString(2, current[id]);
+				statement.executeInsert();
+			}
+		} finally {
+			statement.close();
+		}
+		synchronized (this) {
+			persisted = end;
+		}
+	}
+}
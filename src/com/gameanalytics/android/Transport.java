@@ -0,0 +1,147 @@
+/* 
+   Game Analytics Android Wrapper
+   Copyright (c) 2013 Tim Wicksteed <tim@twicecircled.com>
+   http:/www.gameanalytics.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.gameanalytics.android;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends batches of events to the GameAnalytics servers. The default is
+ * {@link AsyncHttpClientTransport}, use GameAnalytics.setTransport() to swap
+ * in {@link HttpURLConnectionTransport}, {@link PipeliningTransport},
+ * {@link LoopbackTransport} or your own implementation.
+ */
+public interface Transport {
+
+	/**
+	 * Post a request body asynchronously. Exactly one of the listener's
+	 * methods must be called once the request completes, on a background
+	 * thread.
+	 * 
+	 * @param url
+	 *            the URL to post to
+	 * @param body
+	 *            the encoded request body
+	 * @param headers
+	 *            request headers, including Content-Type
+	 * @param listener
+	 *            receives the response
+	 */
+	void post(String url, byte[] body, Map<String, String> headers,
+			ResponseListener listener);
+
+	/**
+	 * Post several requests at once, e.g. every category of a batch. A
+	 * transport may send them together over one connection, otherwise each
+	 * is passed to {@link #post} in turn.
+	 * 
+	 * @param posts
+	 *            the requests to send
+	 */
+	void postAll(List<Post> posts);
+
+	/**
+	 * @return the number of requests that can be accepted right now, the
+	 *         BatchThread leaves events in the database for the next batch
+	 *         when this reaches zero
+	 */
+	int getRemainingCapacity();
+
+	/**
+	 * Block until every request posted so far has been answered or has
+	 * failed, e.g. so uploads can finish before the app shuts down.
+	 * 
+	 * @param timeoutMillis
+	 *            maximum time to wait in milliseconds
+	 * @return true if nothing is left in flight, false if the timeout ran out
+	 */
+	boolean drain(long timeoutMillis) throws InterruptedException;
+
+	/**
+	 * Prepare to send to the given URL, e.g. by resolving its host, without
+	 * blocking the caller. Transports that can't do this may ignore it.
+	 * 
+	 * @param url
+	 *            a URL that events will be posted to
+	 * @param openConnection
+	 *            true to also open a keep-alive connection if the transport
+	 *            supports it
+	 */
+	void warmUp(String url, boolean openConnection);
+
+	/**
+	 * @return connection statistics, or null if the transport doesn't keep
+	 *         any
+	 */
+	ConnectionStats getConnectionStats();
+
+	/**
+	 * A request passed to {@link Transport#postAll}.
+	 */
+	class Post {
+		public final String url;
+		public final byte[] body;
+		public final Map<String, String> headers;
+		public final ResponseListener listener;
+
+		public Post(String url, byte[] body, Map<String, String> headers,
+				ResponseListener listener) {
+			this.url = url;
+			this.body = body;
+			this.headers = headers;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * Receives the outcome of a {@link Transport#post} call.
+	 */
+	interface ResponseListener {
+		/**
+		 * Called when the server responded, whatever the status code.
+		 * 
+		 * @param statusCode
+		 *            the HTTP status code
+		 * @param body
+		 *            the response body, may be null. Transports may leave
+		 *            out the body of a successful response.
+		 */
+		void onResponse(int statusCode, String body);
+
+		/**
+		 * Called instead of onResponse for an error status when the
+		 * transport has already parsed the response body.
+		 * 
+		 * @param statusCode
+		 *            the HTTP status code
+		 * @param error
+		 *            the parsed body, null if it wasn't a JSON error
+		 */
+		void onErrorResponse(int statusCode, ErrorResponse error);
+
+		/**
+		 * Called when no response was received e.g. the host could not be
+		 * reached.
+		 * 
+		 * @param error
+		 *            the cause of the failure
+		 */
+		void onFailure(Throwable error);
+	}
+}
@@ -25,20 +25,22 @@ package com.loopj.twicecircled.android.http;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
+import java.net.URI;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HttpConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
@@ -55,24 +57,30 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.SyncBasicHttpContext;
 
 import android.content.Context;
+import android.os.Build;
 
 
 /**
@@ -98,7 +106,10 @@ public class AsyncHttpClient {
     private static final String VERSION = "1.4.1";
 
     private static final int DEFAULT_MAX_CONNECTIONS = 10;
+    private static final int DEFAULT_MAX_QUEUED_REQUESTS = 50;
+    private static final int DEFAULT_THREAD_KEEP_ALIVE_SECONDS = 30;
     private static final int DEFAULT_SOCKET_TIMEOUT = 10 * 1000;
+    private static final int DEFAULT_WARM_CONNECTION_KEEP_ALIVE_SECONDS = 30;
     private static final int DEFAULT_MAX_RETRIES = 5;
     private static final int DEFAULT_SOCKET_BUFFER_SIZE = 8192;
     private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
@@ -110,7 +121,12 @@ public class AsyncHttpClient {
     private final DefaultHttpClient httpClient;
     private final HttpContext httpContext;
     private ThreadPoolExecutor threadPool;
-    private final Map<Context, List<WeakReference<Future<?>>>> requestMap;
+    private final ScheduledThreadPoolExecutor retryScheduler;
+    private final RetryHandler retryHandler;
+    private final CachingHostNameResolver hostNameResolver;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+    private final RequestRegistry requestRegistry;
     private final Map<String, String> clientHeaderMap;
 
 
@@ -132,8 +148,9 @@ public class AsyncHttpClient {
         HttpProtocolParams.setVersion(httpParams, HttpVersion.HTTP_1_1);
         HttpProtocolParams.setUserAgent(httpParams, String.format("android-async-http/%s (http://loopj.com/android-async-http)", VERSION));
 
+        hostNameResolver = new CachingHostNameResolver();
         SchemeRegistry schemeRegistry = new SchemeRegistry();
-        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("http", new PlainSocketFactory(hostNameResolver), 80));
         schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
         ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(httpParams, schemeRegistry);
 
@@ -147,6 +164,14 @@ public class AsyncHttpClient {
                 for (String header : clientHeaderMap.keySet()) {
                     request.addHeader(header, clientHeaderMap.get(header));
                 }
+
+                // A connection that has already carried a request was reused
+                // from the pool
+                requestCount.incrementAndGet();
+                HttpConnection connection = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+                if (connection != null && connection.getMetrics().getRequestCount() > 0) {
+                    reusedConnectionCount.incrementAndGet();
+                }
             }
         });
 
@@ -168,11 +193,31 @@ public class AsyncHttpClient {
             }
         });
 
-        httpClient.setHttpRequestRetryHandler(new RetryHandler(DEFAULT_MAX_RETRIES));
+        // Retries are handled by AsyncHttpRequest, which schedules them
+        // rather than blocking a pool thread. HttpClient's own retries are
+        // switched off so requests aren't retried twice.
+        retryHandler = new RetryHandler(DEFAULT_MAX_RETRIES);
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+        retryScheduler = new ScheduledThreadPoolExecutor(1);
+        retryScheduler.setKeepAliveTime(DEFAULT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            retryScheduler.allowCoreThreadTimeOut(true);
+        }
 
-        threadPool = (ThreadPoolExecutor)Executors.newCachedThreadPool();
+        // One worker per pooled connection so workers never block waiting on
+        // the connection manager. Requests beyond that queue up to a fixed
+        // limit, after which they are rejected (see sendRequest) rather than
+        // spawning more threads. Use getRemainingCapacity() to back off first.
+        threadPool = new ThreadPoolExecutor(maxConnections, maxConnections,
+                DEFAULT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(DEFAULT_MAX_QUEUED_REQUESTS),
+                new ThreadPoolExecutor.AbortPolicy());
+        // allowCoreThreadTimeOut() is API 9, older devices keep idle workers
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            threadPool.allowCoreThreadTimeOut(true);
+        }
 
-        requestMap = new WeakHashMap<Context, List<WeakReference<Future<?>>>>();
+        requestRegistry = new RequestRegistry();
         clientHeaderMap = new HashMap<String, String>();
     }
 
@@ -204,13 +249,94 @@ public class AsyncHttpClient {
 
     /**
      * Overrides the threadpool implementation used when queuing/pooling
-     * requests. By default, Executors.newCachedThreadPool() is used.
+     * requests. By default, a pool with one thread per connection and a
+     * bounded queue is used.
      * @param threadPool an instance of {@link ThreadPoolExecutor} to use for queuing/pooling requests.
      */
     public void setThreadPool(ThreadPoolExecutor threadPool) {
         this.threadPool = threadPool;
     }
 
+    /**
+     * Looks up the url's host in the background so the first request doesn't
+     * wait on DNS. If openConnection is true a connection to the host is
+     * also opened and left in the pool for the first request to reuse.
+     *
+     * @param url any url on the host to warm up.
+     * @param openConnection whether to connect as well as resolve the host.
+     */
+    public void warmUp(String url, final boolean openConnection) {
+        final URI uri = URI.create(url);
+        try {
+            threadPool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        hostNameResolver.prefetch(uri.getHost());
+                        if (openConnection) {
+                            openPooledConnection(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+                        }
+                    } catch (Exception e) {
+                        // Only a warm-up, the first request will try again
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Busy sending already, no need to warm up
+        }
+    }
+
+    private void openPooledConnection(HttpHost host) throws Exception {
+        ClientConnectionManager cm = httpClient.getConnectionManager();
+        HttpRoute route = new HttpRoute(host);
+        ManagedClientConnection connection = cm.requestConnection(route, null).getConnection(socketTimeout, TimeUnit.MILLISECONDS);
+        try {
+            if (!connection.isOpen()) {
+                connection.open(route, new BasicHttpContext(), httpClient.getParams());
+            }
+            connection.markReusable();
+        } finally {
+            cm.releaseConnection(connection, DEFAULT_WARM_CONNECTION_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the resolver used for plain http hosts. Its TTL can be changed
+     * with {@link CachingHostNameResolver#setTtl(long)}.
+     */
+    public CachingHostNameResolver getHostNameResolver() {
+        return hostNameResolver;
+    }
+
+    /**
+     * Returns the number of requests sent so far.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns how many of the requests sent so far went over a pooled
+     * keep-alive connection rather than a new one.
+     */
+    public long getReusedConnectionCount() {
+        return reusedConnectionCount.get();
+    }
+
+    /**
+     * Gets the number of requests that can be submitted right now without
+     * being rejected, i.e. idle worker threads plus free queue slots. Callers
+     * sending many requests at once should stop when this reaches zero.
+     * @return the number of requests that can be accepted, or Integer.MAX_VALUE if the thread pool is unbounded.
+     */
+    public int getRemainingCapacity() {
+        int queueCapacity = threadPool.getQueue().remainingCapacity();
+        if (queueCapacity == Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        int idleWorkers = threadPool.getMaximumPoolSize() - threadPool.getActiveCount();
+        return Math.max(idleWorkers, 0) + queueCapacity;
+    }
+
     /**
      * Sets the User-Agent header to be sent with each request. By default,
      * "Android Asynchronous Http Client/VERSION (http://loopj.com/android-async-http/)" is used.
@@ -286,16 +412,35 @@ public class AsyncHttpClient {
      * @param mayInterruptIfRunning specifies if active requests should be cancelled along with pending requests.
      */
     public void cancelRequests(Context context, boolean mayInterruptIfRunning) {
-        List<WeakReference<Future<?>>> requestList = requestMap.get(context);
-        if(requestList != null) {
-            for(WeakReference<Future<?>> requestRef : requestList) {
-                Future<?> request = requestRef.get();
-                if(request != null) {
-                    request.cancel(mayInterruptIfRunning);
-                }
-            }
-        }
-        requestMap.remove(context);
+        requestRegistry.cancel(context, mayInterruptIfRunning);
+    }
+
+    /**
+     * Returns the number of requests that have been sent but not yet
+     * finished, including any waiting to retry.
+     */
+    public int getInFlightCount() {
+        return requestRegistry.getInFlightCount();
+    }
+
+    /**
+     * Returns the number of unfinished requests started with the given
+     * Context.
+     */
+    public int getInFlightCount(Context context) {
+        return requestRegistry.getInFlightCount(context);
+    }
+
+    /**
+     * Blocks until every request in flight has finished, e.g. to let uploads
+     * complete before shutting down. New requests can still be sent while
+     * waiting.
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds.
+     * @return true if all requests finished, false if the timeout ran out.
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        return requestRegistry.drain(timeoutMillis);
     }
 
 
@@ -598,22 +743,23 @@ public class AsyncHttpClient {
             uriRequest.addHeader("Content-Type", contentType);
         }
 
-        Future<?> request = threadPool.submit(new AsyncHttpRequest(client, httpContext, uriRequest, responseHandler));
-
-        if(context != null) {
-            // Add request to request map
-            List<WeakReference<Future<?>>> requestList = requestMap.get(context);
-            if(requestList == null) {
-                requestList = new LinkedList<WeakReference<Future<?>>>();
-                requestMap.put(context, requestList);
-            }
-
-            requestList.add(new WeakReference<Future<?>>(request));
-
-            // TODO: Remove dead weakrefs from requestLists?
+        // Registered before submitting so a fast request can't finish first.
+        // It is removed again once its last attempt is done.
+        AsyncHttpRequest request = new AsyncHttpRequest(client, httpContext, uriRequest, responseHandler, retryHandler, threadPool, retryScheduler);
+        RequestRegistry.Handle handle = requestRegistry.register(context);
+        request.setHandle(requestRegistry, handle);
+        try {
+            handle.setFuture(threadPool.submit(request));
+        } catch (RejectedExecutionException e) {
+            // Thread pool and queue are full, fail the request straight away
+            request.fail(e);
         }
     }
 
+    RetryHandler getRetryHandler() {
+        return retryHandler;
+    }
+
     public static String getUrlWithQueryString(String url, RequestParams params) {
         if(params != null) {
             String paramString = params.getParamString();
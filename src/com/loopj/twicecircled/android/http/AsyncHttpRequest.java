@@ -19,63 +19,167 @@
 package com.loopj.twicecircled.android.http;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.protocol.HttpContext;
 
+import android.os.SystemClock;
+
 class AsyncHttpRequest implements Runnable {
+    // The handler is answered once, either by an attempt or by cancel(),
+    // whichever gets there first
+    private static final int OPEN = 0;
+    private static final int ANSWERED = 1;
+    private static final int CANCELLED = 2;
+
     private final AbstractHttpClient client;
     private final HttpContext context;
     private final HttpUriRequest request;
     private final AsyncHttpResponseHandler responseHandler;
+    private final RetryHandler retryHandler;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService retryScheduler;
     private boolean isBinaryRequest;
     private int executionCount;
+    private RequestRegistry registry;
+    private RequestRegistry.Handle handle;
+    private final AtomicInteger state = new AtomicInteger(OPEN);
+
+    /**
+     * Creates a request that retries on the calling thread, sleeping between
+     * attempts. Used where the caller expects to block, e.g. SyncHttpClient.
+     */
+    public AsyncHttpRequest(AbstractHttpClient client, HttpContext context, HttpUriRequest request, AsyncHttpResponseHandler responseHandler, RetryHandler retryHandler) {
+        this(client, context, request, responseHandler, retryHandler, null, null);
+    }
 
-    public AsyncHttpRequest(AbstractHttpClient client, HttpContext context, HttpUriRequest request, AsyncHttpResponseHandler responseHandler) {
+    /**
+     * Creates a request that, when it needs to retry, schedules itself on the
+     * retryScheduler and is then run again on the executor, so no thread is
+     * held while waiting between attempts.
+     */
+    public AsyncHttpRequest(AbstractHttpClient client, HttpContext context, HttpUriRequest request, AsyncHttpResponseHandler responseHandler, RetryHandler retryHandler, ExecutorService executor, ScheduledExecutorService retryScheduler) {
         this.client = client;
         this.context = context;
         this.request = request;
         this.responseHandler = responseHandler;
+        this.retryHandler = retryHandler;
+        this.executor = executor;
+        this.retryScheduler = retryScheduler;
         if(responseHandler instanceof BinaryHttpResponseHandler) {
             this.isBinaryRequest = true;
         }
     }
 
+    /**
+     * Tracks this request in the registry until its last attempt finishes.
+     * Must be called before the request is first run.
+     */
+    void setHandle(RequestRegistry registry, RequestRegistry.Handle handle) {
+        this.registry = registry;
+        this.handle = handle;
+        handle.setRequest(this);
+    }
+
+    /**
+     * Sends a failure and then the finish message to the handler, unless an
+     * attempt has answered it already. Called once the request is cancelled.
+     */
+    void cancel() {
+        if(state.compareAndSet(OPEN, CANCELLED)) {
+            if(responseHandler != null) {
+                sendFailureMessage(new InterruptedIOException("Request cancelled"));
+                responseHandler.sendFinishMessage();
+            }
+            requestFinished();
+        }
+    }
+
+    /**
+     * Fails a request that could not be run, e.g. because the thread pool
+     * is full.
+     */
+    void fail(Throwable e) {
+        if(claim() && responseHandler != null) {
+            sendFailureMessage(e);
+            responseHandler.sendFinishMessage();
+        }
+        requestFinished();
+    }
+
+    // True if this attempt answers the handler, false if cancel() has
+    private boolean claim() {
+        return state.compareAndSet(OPEN, ANSWERED) || state.get() == ANSWERED;
+    }
+
+    private void sendFailureMessage(Throwable e) {
+        if(this.isBinaryRequest) {
+            responseHandler.sendFailureMessage(e, (byte[]) null);
+        } else {
+            responseHandler.sendFailureMessage(e, (String) null);
+        }
+    }
+
     public void run() {
+        if(handle != null && handle.isCancelled()) {
+            // cancel() answers the handler
+            return;
+        }
+        boolean finished = true;
         try {
-            if(responseHandler != null){
+            if(executionCount == 0 && responseHandler != null){
                 responseHandler.sendStartMessage();
             }
 
-            makeRequestWithRetries();
+            if(!makeRequestWithRetries()) {
+                // Retry scheduled, the final attempt sends the finish message
+                finished = false;
+                return;
+            }
 
-            if(responseHandler != null) {
+            if(state.compareAndSet(OPEN, ANSWERED) && responseHandler != null) {
+                // Interrupted before there was a response
+                sendFailureMessage(new InterruptedIOException());
+            }
+            if(claim() && responseHandler != null) {
                 responseHandler.sendFinishMessage();
             }
         } catch (IOException e) {
-            if(responseHandler != null) {
+            if(claim() && responseHandler != null) {
                 responseHandler.sendFinishMessage();
-                if(this.isBinaryRequest) {
-                    responseHandler.sendFailureMessage(e, (byte[]) null);
-                } else {
-                    responseHandler.sendFailureMessage(e, (String) null);
-                }
+                sendFailureMessage(e);
+            }
+        } finally {
+            if(finished) {
+                requestFinished();
             }
         }
     }
 
+    private void requestFinished() {
+        if(registry != null) {
+            registry.finished(handle);
+        }
+    }
+
     private void makeRequest() throws IOException {
         if(!Thread.currentThread().isInterrupted()) {
             HttpResponse response = client.execute(request, context);
             if(!Thread.currentThread().isInterrupted()) {
-                if(responseHandler != null) {
+                if(claim() && responseHandler != null) {
                     responseHandler.sendResponseMessage(response);
                 }
             } else{
@@ -84,42 +188,54 @@ class AsyncHttpRequest implements Runnable {
         }
     }
 
-    private void makeRequestWithRetries() throws ConnectException {
+    // Returns false if the request has been rescheduled to try again later
+    private boolean makeRequestWithRetries() throws ConnectException {
         // This is an additional layer of retry logic lifted from droid-fu
         // See: https://github.com/kaeppler/droid-fu/blob/master/src/main/java/com/github/droidfu/http/BetterHttpRequestBase.java
         boolean retry = true;
         IOException cause = null;
-        HttpRequestRetryHandler retryHandler = client.getHttpRequestRetryHandler();
         while (retry) {
             try {
                 makeRequest();
-                return;
+                return true;
             } catch (UnknownHostException e) {
-		        if(responseHandler != null) {
+		        if(claim() && responseHandler != null) {
 		            responseHandler.sendFailureMessage(e, "can't resolve host");
 		        }
-	        	return;
-            }catch (SocketException e){
-                // Added to detect host unreachable
-                if(responseHandler != null) {
-                    responseHandler.sendFailureMessage(e, "can't resolve host");
-                }
-                return;
+	        	return true;
             }catch (SocketTimeoutException e){
-                if(responseHandler != null) {
+                if(claim() && responseHandler != null) {
                     responseHandler.sendFailureMessage(e, "socket time out");
                 }
-                return;
+                return true;
             } catch (IOException e) {
                 cause = e;
-                retry = retryHandler.retryRequest(cause, ++executionCount, context);
+                retry = retryHandler.retryRequest(cause, ++executionCount, context, request);
             } catch (NullPointerException e) {
                 // there's a bug in HttpClient 4.0.x that on some occasions causes
                 // DefaultRequestExecutor to throw an NPE, see
                 // http://code.google.com/p/android/issues/detail?id=5255
                 cause = new IOException("NPE in HttpClient" + e.getMessage());
-                retry = retryHandler.retryRequest(cause, ++executionCount, context);
+                retry = retryHandler.retryRequest(cause, ++executionCount, context, request);
             }
+
+            if(retry) {
+                if(retryScheduler == null) {
+                    SystemClock.sleep(retryHandler.getRetryDelayMillis());
+                } else if(scheduleRetry()) {
+                    return false;
+                } else {
+                    retry = false;
+                }
+            }
+        }
+
+        if(cause instanceof SocketException) {
+            // Added to detect host unreachable
+            if(claim() && responseHandler != null) {
+                responseHandler.sendFailureMessage(cause, "can't resolve host");
+            }
+            return true;
         }
 
         // no retries left, crap out with exception
@@ -127,4 +243,28 @@ class AsyncHttpRequest implements Runnable {
         ex.initCause(cause);
         throw ex;
     }
+
+    private boolean scheduleRetry() {
+        try {
+            retryScheduler.schedule(new Runnable() {
+                public void run() {
+                    if(handle != null && handle.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        Future<?> future = executor.submit(AsyncHttpRequest.this);
+                        if(handle != null) {
+                            handle.setFuture(future);
+                        }
+                    } catch (RejectedExecutionException e) {
+                        // Thread pool is full, give up on this request
+                        fail(e);
+                    }
+                }
+            }, retryHandler.getRetryDelayMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
 }
@@ -25,10 +25,10 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
-import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * Used to intercept and handle the responses from requests made using 
@@ -72,6 +72,7 @@ public class AsyncHttpResponseHandler {
     protected static final int FINISH_MESSAGE = 3;
 
     private Handler handler;
+    private Executor callbackExecutor;
 
     /**
      * Creates a new AsyncHttpResponseHandler
@@ -87,6 +88,18 @@ public class AsyncHttpResponseHandler {
         }
     }
 
+    /**
+     * Creates a new AsyncHttpResponseHandler whose callbacks are run on the
+     * given executor rather than the calling thread's Looper. Use this to
+     * keep response handling off the UI thread. The executor should run
+     * tasks in order (e.g. a single thread) so that onStart(), onSuccess()
+     * and onFinish() are called in sequence.
+     * @param callbackExecutor the executor to run callbacks on
+     */
+    public AsyncHttpResponseHandler(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
 
     //
     // Callbacks to be overridden, typically anonymously
@@ -140,7 +153,7 @@ public class AsyncHttpResponseHandler {
     //
 
     protected void sendSuccessMessage(int statusCode, String responseBody) {
-        sendMessage(obtainMessage(SUCCESS_MESSAGE, new Object[]{new Integer(statusCode), responseBody}));
+        sendMessage(obtainMessage(SUCCESS_MESSAGE, new Object[]{Integer.valueOf(statusCode), responseBody}));
     }
 
     protected void sendFailureMessage(Throwable e, String responseBody) {
@@ -196,8 +209,14 @@ public class AsyncHttpResponseHandler {
         }
     }
 
-    protected void sendMessage(Message msg) {
-        if(handler != null){
+    protected void sendMessage(final Message msg) {
+        if(callbackExecutor != null) {
+            callbackExecutor.execute(new Runnable() {
+                public void run() {
+                    handleMessage(msg);
+                }
+            });
+        } else if(handler != null){
             handler.sendMessage(msg);
         } else {
             handleMessage(msg);
@@ -221,10 +240,9 @@ public class AsyncHttpResponseHandler {
         StatusLine status = response.getStatusLine();
         String responseBody = null;
         try {
-            HttpEntity entity = null;
-            HttpEntity temp = response.getEntity();
-            if(temp != null) {
-                entity = new BufferedHttpEntity(temp);
+            HttpEntity entity = response.getEntity();
+            if(entity != null) {
+                // Read straight from the stream, no need to buffer it first
                 responseBody = EntityUtils.toString(entity, "UTF-8");
             }
         } catch(IOException e) {
@@ -0,0 +1,98 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.twicecircled.android.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.scheme.HostNameResolver;
+
+import android.os.SystemClock;
+
+/**
+ * Resolves host names and keeps the result for a fixed time, so hosts can be
+ * looked up ahead of the first request with {@link #prefetch(String)}. If a
+ * lookup fails, an expired address is used rather than failing the request.
+ */
+public class CachingHostNameResolver implements HostNameResolver {
+    private static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+    private final ConcurrentHashMap<String, CachedAddress> cache = new ConcurrentHashMap<String, CachedAddress>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+
+    public InetAddress resolve(String hostname) throws IOException {
+        CachedAddress cached = cache.get(hostname);
+        if(cached != null && SystemClock.elapsedRealtime() < cached.expires) {
+            hits.incrementAndGet();
+            return cached.address;
+        }
+        misses.incrementAndGet();
+        try {
+            return lookup(hostname);
+        } catch (IOException e) {
+            if(cached != null) {
+                return cached.address;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the host now and caches the result. Blocks, so call it from a
+     * background thread.
+     */
+    public void prefetch(String hostname) throws IOException {
+        lookup(hostname);
+    }
+
+    /**
+     * Sets how long resolved addresses are kept, in milliseconds.
+     */
+    public void setTtl(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private InetAddress lookup(String hostname) throws IOException {
+        InetAddress address = InetAddress.getByName(hostname);
+        cache.put(hostname, new CachedAddress(address, SystemClock.elapsedRealtime() + ttlMillis));
+        return address;
+    }
+
+    private static class CachedAddress {
+        final InetAddress address;
+        final long expires;
+
+        CachedAddress(InetAddress address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
@@ -20,18 +20,26 @@ package com.loopj.twicecircled.android.http;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.client.CookieStore;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.text.TextUtils;
 
 /**
@@ -40,6 +48,11 @@ import android.text.TextUtils;
  * user's device between application sessions since they are serialized and
  * stored in {@link SharedPreferences}.
  * <p>
+ * Stored cookies are only read and decoded when the store is first used.
+ * Changes are written to disk in the background, several changes made in
+ * quick succession (e.g. all the cookies set by one response) are written
+ * together.
+ * <p>
  * Instances of this class are designed to be used with
  * {@link AsyncHttpClient#setCookieStore}, but can also be used with a 
  * regular old apache HttpClient/HttpContext if you prefer.
@@ -48,9 +61,27 @@ public class PersistentCookieStore implements CookieStore {
     private static final String COOKIE_PREFS = "CookiePrefsFile";
     private static final String COOKIE_NAME_STORE = "names";
     private static final String COOKIE_NAME_PREFIX = "cookie_";
+    private static final String COMPACT_COOKIE_PREFIX = "c1:";
+    private static final int FLUSH_DELAY_MILLIS = 100;
+
+    // Shared by all stores, the thread stops when idle
+    private static final ScheduledThreadPoolExecutor WRITER;
+    static {
+        WRITER = new ScheduledThreadPoolExecutor(1);
+        WRITER.setKeepAliveTime(30, TimeUnit.SECONDS);
+        // Needs API 9, calling it on older devices would fail class loading
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            WRITER.allowCoreThreadTimeOut(true);
+        }
+    }
 
     private final ConcurrentHashMap<String, Cookie> cookies;
     private final SharedPreferences cookiePrefs;
+    private volatile boolean loaded;
+
+    // Names of cookies changed since the last write, guarded by itself
+    private final Set<String> dirtyNames = new HashSet<String>();
+    private boolean flushScheduled;
 
     /**
      * Construct a persistent cookie store.
@@ -58,28 +89,41 @@ public class PersistentCookieStore implements CookieStore {
     public PersistentCookieStore(Context context) {
         cookiePrefs = context.getSharedPreferences(COOKIE_PREFS, 0);
         cookies = new ConcurrentHashMap<String, Cookie>();
+    }
 
-        // Load any previously stored cookies into the store
-        String storedCookieNames = cookiePrefs.getString(COOKIE_NAME_STORE, null);
-        if(storedCookieNames != null) {
-            String[] cookieNames = TextUtils.split(storedCookieNames, ",");
-            for(String name : cookieNames) {
-                String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
-                if(encodedCookie != null) {
-                    Cookie decodedCookie = decodeCookie(encodedCookie);
-                    if(decodedCookie != null) {
-                        cookies.put(name, decodedCookie);
+    // Load any previously stored cookies into the store, done on first use
+    // rather than in the constructor
+    private void ensureLoaded() {
+        if(loaded) {
+            return;
+        }
+        synchronized(this) {
+            if(loaded) {
+                return;
+            }
+            String storedCookieNames = cookiePrefs.getString(COOKIE_NAME_STORE, null);
+            if(storedCookieNames != null) {
+                String[] cookieNames = TextUtils.split(storedCookieNames, ",");
+                for(String name : cookieNames) {
+                    String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
+                    if(encodedCookie != null) {
+                        Cookie decodedCookie = decodeCookie(encodedCookie);
+                        if(decodedCookie != null) {
+                            cookies.put(name, decodedCookie);
+                        }
                     }
                 }
             }
-
-            // Clear out expired cookies
-            clearExpired(new Date());
+            loaded = true;
         }
+
+        // Clear out expired cookies
+        clearExpired(new Date());
     }
 
     @Override
     public void addCookie(Cookie cookie) {
+        ensureLoaded();
         String name = cookie.getName();
 
         // Save cookie into local store, or remove if expired
@@ -90,30 +134,26 @@ public class PersistentCookieStore implements CookieStore {
         }
 
         // Save cookie into persistent store
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
-        prefsWriter.putString(COOKIE_NAME_PREFIX + name, encodeCookie(new SerializableCookie(cookie)));
-        prefsWriter.commit();
+        markDirty(name);
     }
 
     @Override
     public void clear() {
-        // Clear cookies from local store
-        cookies.clear();
+        ensureLoaded();
 
         // Clear cookies from persistent store
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
         for(String name : cookies.keySet()) {
-            prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+            markDirty(name);
         }
-        prefsWriter.remove(COOKIE_NAME_STORE);
-        prefsWriter.commit();
+
+        // Clear cookies from local store
+        cookies.clear();
     }
 
     @Override
     public boolean clearExpired(Date date) {
+        ensureLoaded();
         boolean clearedAny = false;
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
 
         for(ConcurrentHashMap.Entry<String, Cookie> entry : cookies.entrySet()) {
             String name = entry.getKey();
@@ -123,45 +163,131 @@ public class PersistentCookieStore implements CookieStore {
                 cookies.remove(name);
 
                 // Clear cookies from persistent store
-                prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+                markDirty(name);
 
                 // We've cleared at least one
                 clearedAny = true;
             }
         }
 
-        // Update names in persistent store
-        if(clearedAny) {
-            prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
-        }
-        prefsWriter.commit();
-
         return clearedAny;
     }
 
     @Override
     public List<Cookie> getCookies() {
+        ensureLoaded();
         return new ArrayList<Cookie>(cookies.values());
     }
 
 
+    //
+    // Batched writes to the persistent store
+    //
+
+    private void markDirty(String name) {
+        synchronized(dirtyNames) {
+            dirtyNames.add(name);
+            if(flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        WRITER.schedule(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        Set<String> names;
+        synchronized(dirtyNames) {
+            names = new HashSet<String>(dirtyNames);
+            dirtyNames.clear();
+            flushScheduled = false;
+        }
+
+        // Writes whatever is in the local store now, so a cookie changed
+        // several times is only written once
+        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
+        for(String name : names) {
+            Cookie cookie = cookies.get(name);
+            String encodedCookie = cookie != null ? encodeCookie(new SerializableCookie(cookie)) : null;
+            if(encodedCookie != null) {
+                prefsWriter.putString(COOKIE_NAME_PREFIX + name, encodedCookie);
+            } else {
+                prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+            }
+        }
+        if(cookies.isEmpty()) {
+            prefsWriter.remove(COOKIE_NAME_STORE);
+        } else {
+            prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
+        }
+        prefsWriter.commit();
+    }
+
+
     //
     // Cookie serialization/deserialization
     //
 
-    protected String encodeCookie(SerializableCookie cookie) {
+    // Cookies are written field by field and hex encoded, which is much
+    // smaller and faster than Java serialization. Cookies stored by older
+    // versions as hex encoded serialized objects can still be read.
+    protected String encodeCookie(SerializableCookie serializableCookie) {
+        Cookie cookie = serializableCookie.getCookie();
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         try {
-            ObjectOutputStream outputStream = new ObjectOutputStream(os);
-            outputStream.writeObject(cookie);
-        } catch (Exception e) {
+            DataOutputStream out = new DataOutputStream(os);
+            writeNullableString(out, cookie.getName());
+            writeNullableString(out, cookie.getValue());
+            writeNullableString(out, cookie.getComment());
+            writeNullableString(out, cookie.getDomain());
+            writeNullableString(out, cookie.getPath());
+            Date expiryDate = cookie.getExpiryDate();
+            out.writeBoolean(expiryDate != null);
+            if(expiryDate != null) {
+                out.writeLong(expiryDate.getTime());
+            }
+            out.writeInt(cookie.getVersion());
+            out.writeBoolean(cookie.isSecure());
+            out.flush();
+        } catch (IOException e) {
             return null;
         }
 
-        return byteArrayToHexString(os.toByteArray());
+        return COMPACT_COOKIE_PREFIX + byteArrayToHexString(os.toByteArray());
     }
 
     protected Cookie decodeCookie(String cookieStr) {
+        if(!cookieStr.startsWith(COMPACT_COOKIE_PREFIX)) {
+            return decodeSerializedCookie(cookieStr);
+        }
+
+        Cookie cookie = null;
+        try {
+            byte[] bytes = hexStringToByteArray(cookieStr.substring(COMPACT_COOKIE_PREFIX.length()));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            BasicClientCookie clientCookie = new BasicClientCookie(readNullableString(in), readNullableString(in));
+            clientCookie.setComment(readNullableString(in));
+            clientCookie.setDomain(readNullableString(in));
+            clientCookie.setPath(readNullableString(in));
+            if(in.readBoolean()) {
+                clientCookie.setExpiryDate(new Date(in.readLong()));
+            }
+            clientCookie.setVersion(in.readInt());
+            clientCookie.setSecure(in.readBoolean());
+            cookie = clientCookie;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return cookie;
+    }
+
+    // Reads the hex encoded serialized cookies written by older versions
+    private Cookie decodeSerializedCookie(String cookieStr) {
         byte[] bytes = hexStringToByteArray(cookieStr);
         ByteArrayInputStream is = new ByteArrayInputStream(bytes);
         Cookie cookie = null;
@@ -175,6 +301,17 @@ public class PersistentCookieStore implements CookieStore {
         return cookie;
     }
 
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     // Using some super basic byte array <-> hex conversions so we don't have
     // to rely on any large Base64 libraries. Can be overridden if you like!
     protected String byteArrayToHexString(byte[] b) {
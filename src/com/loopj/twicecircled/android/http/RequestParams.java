@@ -20,7 +20,6 @@ package com.loopj.twicecircled.android.http;
 
 import java.io.InputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -123,12 +122,29 @@ public class RequestParams {
     }
 
     /**
-     * Adds a file to the request.
+     * Adds a file to the request. The file is read from disk as the request
+     * is sent rather than being loaded into memory.
      * @param key the key name for the new param.
      * @param file the file to add.
      */
     public void put(String key, File file) throws FileNotFoundException {
-        put(key, new FileInputStream(file), file.getName());
+        put(key, file, null);
+    }
+
+    /**
+     * Adds a file to the request. The file is read from disk as the request
+     * is sent rather than being loaded into memory.
+     * @param key the key name for the new param.
+     * @param file the file to add.
+     * @param contentType the content type of the file, eg. application/json
+     */
+    public void put(String key, File file, String contentType) throws FileNotFoundException {
+        if(!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        if(key != null) {
+            fileParams.put(key, new FileWrapper(file, contentType));
+        }
     }
 
     /**
@@ -241,7 +257,14 @@ public class RequestParams {
             int lastIndex = fileParams.entrySet().size() - 1;
             for(ConcurrentHashMap.Entry<String, FileWrapper> entry : fileParams.entrySet()) {
                 FileWrapper file = entry.getValue();
-                if(file.inputStream != null) {
+                if(file.file != null) {
+                    boolean isLast = currentIndex == lastIndex;
+                    if(file.contentType != null) {
+                        multipartEntity.addPart(entry.getKey(), file.file, file.contentType, isLast);
+                    } else {
+                        multipartEntity.addPart(entry.getKey(), file.file, isLast);
+                    }
+                } else if(file.inputStream != null) {
                     boolean isLast = currentIndex == lastIndex;
                     if(file.contentType != null) {
                         multipartEntity.addPart(entry.getKey(), file.getFileName(), file.inputStream, file.contentType, isLast);
@@ -301,6 +324,7 @@ public class RequestParams {
 
     private static class FileWrapper {
         public InputStream inputStream;
+        public File file;
         public String fileName;
         public String contentType;
 
@@ -310,6 +334,12 @@ public class RequestParams {
             this.contentType = contentType;
         }
 
+        public FileWrapper(File file, String contentType) {
+            this.file = file;
+            this.fileName = file.getName();
+            this.contentType = contentType;
+        }
+
         public String getFileName() {
             if(fileName != null) {
                 return fileName;
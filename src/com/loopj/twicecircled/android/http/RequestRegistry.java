@@ -0,0 +1,180 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.twicecircled.android.http;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps track of requests from the moment they are submitted until their
+ * last attempt has finished, grouped by tag (the Context passed in by the
+ * caller). Finished requests remove themselves, so nothing is left behind
+ * for long-lived tags.
+ */
+class RequestRegistry {
+    private final ConcurrentHashMap<Object, Set<Handle>> requestsByTag = new ConcurrentHashMap<Object, Set<Handle>>();
+    private final Object lock = new Object();
+    private int inFlight;
+
+    /**
+     * A single tracked request.
+     */
+    static class Handle {
+        private final Object tag;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile Future<?> future;
+        private volatile AsyncHttpRequest request;
+        private volatile boolean cancelled;
+
+        private Handle(Object tag) {
+            this.tag = tag;
+        }
+
+        void setFuture(Future<?> future) {
+            this.future = future;
+        }
+
+        void setRequest(AsyncHttpRequest request) {
+            this.request = request;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    Handle register(Object tag) {
+        Handle handle = new Handle(tag);
+        synchronized (lock) {
+            inFlight++;
+        }
+        while(tag != null) {
+            Set<Handle> requests = requestsByTag.get(tag);
+            if(requests == null) {
+                Set<Handle> created = new HashSet<Handle>();
+                requests = requestsByTag.putIfAbsent(tag, created);
+                if(requests == null) {
+                    requests = created;
+                }
+            }
+            synchronized (requests) {
+                // The set is dropped from the map once empty, start again if
+                // that happened before we got the lock
+                if(requestsByTag.get(tag) == requests) {
+                    requests.add(handle);
+                    break;
+                }
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Marks the request as finished. Safe to call more than once.
+     */
+    void finished(Handle handle) {
+        if(!handle.finished.compareAndSet(false, true)) {
+            return;
+        }
+        if(handle.tag != null) {
+            Set<Handle> requests = requestsByTag.get(handle.tag);
+            if(requests != null) {
+                synchronized (requests) {
+                    requests.remove(handle);
+                    if(requests.isEmpty()) {
+                        requestsByTag.remove(handle.tag, requests);
+                    }
+                }
+            }
+        }
+        synchronized (lock) {
+            inFlight--;
+            if(inFlight == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    void cancel(Object tag, boolean mayInterruptIfRunning) {
+        Set<Handle> requests = requestsByTag.get(tag);
+        if(requests == null) {
+            return;
+        }
+        List<Handle> handles;
+        synchronized (requests) {
+            handles = new ArrayList<Handle>(requests);
+        }
+        for(Handle handle : handles) {
+            // Stops any retry that is still waiting to be scheduled too
+            handle.cancelled = true;
+            Future<?> future = handle.future;
+            if(future != null) {
+                future.cancel(mayInterruptIfRunning);
+            }
+            // Tell the handler, unless the request has answered it already,
+            // and mark the request finished
+            AsyncHttpRequest request = handle.request;
+            if(request != null) {
+                request.cancel();
+            } else {
+                finished(handle);
+            }
+        }
+    }
+
+    int getInFlightCount() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    int getInFlightCount(Object tag) {
+        Set<Handle> requests = requestsByTag.get(tag);
+        if(requests == null) {
+            return 0;
+        }
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    /**
+     * Waits until no requests are in flight.
+     *
+     * @return true if everything finished, false if the timeout ran out first.
+     */
+    boolean drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while(inFlight > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+}
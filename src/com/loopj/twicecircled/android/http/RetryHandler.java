@@ -38,8 +38,6 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 
-import android.os.SystemClock;
-
 class RetryHandler implements HttpRequestRetryHandler {
     private static final int RETRY_SLEEP_TIME_MILLIS = 1500;
     private static HashSet<Class<?>> exceptionWhitelist = new HashSet<Class<?>>();
@@ -66,6 +64,16 @@ class RetryHandler implements HttpRequestRetryHandler {
     }
 
     public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+        HttpUriRequest currentReq = (HttpUriRequest) context.getAttribute( ExecutionContext.HTTP_REQUEST );
+        return retryRequest(exception, executionCount, context, currentReq);
+    }
+
+    /**
+     * Decides whether a request should be retried. This does not wait, the
+     * caller is responsible for waiting {@link #getRetryDelayMillis()}
+     * before the next attempt.
+     */
+    public boolean retryRequest(IOException exception, int executionCount, HttpContext context, HttpUriRequest currentReq) {
         boolean retry = true;
 
         Boolean b = (Boolean) context.getAttribute(ExecutionContext.HTTP_REQ_SENT);
@@ -85,21 +93,23 @@ class RetryHandler implements HttpRequestRetryHandler {
             retry = true;
         }
 
-        if(retry) {
-            // resend all idempotent requests
-            HttpUriRequest currentReq = (HttpUriRequest) context.getAttribute( ExecutionContext.HTTP_REQUEST );
+        if(retry && currentReq != null) {
+            // resend all idempotent requests. POSTs are never resent, the
+            // server may already have recorded them.
             String requestType = currentReq.getMethod();
             retry = !requestType.equals("POST");
         }
 
-        if(retry) {
-            SystemClock.sleep(RETRY_SLEEP_TIME_MILLIS);
-        } else {
+        if(!retry) {
             exception.printStackTrace();
         }
 
         return retry;
     }
+
+    public long getRetryDelayMillis() {
+        return RETRY_SLEEP_TIME_MILLIS;
+    }
     
     protected boolean isInList(HashSet<Class<?>> list, Throwable error) {
     	Iterator<Class<?>> itr = list.iterator();
@@ -27,24 +27,34 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.message.BasicHeader;
 
+/**
+ * Multipart form entity that is written straight to the connection. Only the
+ * part headers are held in memory, file contents are streamed from disk
+ * through a fixed size buffer when the request is sent. The content length
+ * is known up front unless a part was added as an InputStream, in which case
+ * the entity is sent chunked.
+ */
 class SimpleMultipartEntity implements HttpEntity {
     private final static char[] MULTIPART_CHARS = "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private final static byte[] CR_LF = "\r\n".getBytes();
+    private final static String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private final static int BUFFER_SIZE = 4096;
 
     private String boundary = null;
-
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    boolean isSetLast = false;
-    boolean isSetFirst = false;
+    private final byte[] boundaryLine;
+    private final byte[] lastBoundaryLine;
+    private final List<Part> parts = new ArrayList<Part>();
 
     public SimpleMultipartEntity() {
         final StringBuffer buf = new StringBuffer();
@@ -53,89 +63,50 @@ class SimpleMultipartEntity implements HttpEntity {
             buf.append(MULTIPART_CHARS[rand.nextInt(MULTIPART_CHARS.length)]);
         }
         this.boundary = buf.toString();
-
-    }
-
-    public void writeFirstBoundaryIfNeeds(){
-        if(!isSetFirst){
-            try {
-                out.write(("--" + boundary + "\r\n").getBytes());
-            } catch (final IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        isSetFirst = true;
-    }
-
-    public void writeLastBoundaryIfNeeds() {
-        if(isSetLast){
-            return;
-        }
-
-        try {
-            out.write(("\r\n--" + boundary + "--\r\n").getBytes());
-        } catch (final IOException e) {
-            e.printStackTrace();
-        }
-
-        isSetLast = true;
+        this.boundaryLine = ("--" + boundary + "\r\n").getBytes();
+        this.lastBoundaryLine = ("--" + boundary + "--\r\n").getBytes();
     }
 
     public void addPart(final String key, final String value) {
-        writeFirstBoundaryIfNeeds();
-        try {
-            out.write(("Content-Disposition: form-data; name=\"" +key+"\"\r\n\r\n").getBytes());
-            out.write(value.getBytes());
-            out.write(("\r\n--" + boundary + "\r\n").getBytes());
-        } catch (final IOException e) {
-            e.printStackTrace();
-        }
+        parts.add(new Part(("Content-Disposition: form-data; name=\"" + key + "\"\r\n\r\n").getBytes(), value.getBytes()));
     }
 
+    // isLast is no longer needed, the closing boundary is always written
+    // after the final part
     public void addPart(final String key, final String fileName, final InputStream fin, final boolean isLast){
-        addPart(key, fileName, fin, "application/octet-stream", isLast);
+        addPart(key, fileName, fin, DEFAULT_CONTENT_TYPE, isLast);
     }
 
     public void addPart(final String key, final String fileName, final InputStream fin, String type, final boolean isLast){
-        writeFirstBoundaryIfNeeds();
-        try {
-            type = "Content-Type: "+type+"\r\n";
-            out.write(("Content-Disposition: form-data; name=\""+ key+"\"; filename=\"" + fileName + "\"\r\n").getBytes());
-            out.write(type.getBytes());
-            out.write("Content-Transfer-Encoding: binary\r\n\r\n".getBytes());
-
-            final byte[] tmp = new byte[4096];
-            int l = 0;
-            while ((l = fin.read(tmp)) != -1) {
-                out.write(tmp, 0, l);
-            }
-            if(!isLast)
-                out.write(("\r\n--" + boundary + "\r\n").getBytes());
-            out.flush();
-        } catch (final IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                fin.close();
-            } catch (final IOException e) {
-                e.printStackTrace();
-            }
-        }
+        parts.add(new Part(createFileHeader(key, fileName, type), fin));
     }
 
     public void addPart(final String key, final File value, final boolean isLast) {
-        try {
-            addPart(key, value.getName(), new FileInputStream(value), isLast);
-        } catch (final FileNotFoundException e) {
-            e.printStackTrace();
-        }
+        addPart(key, value, DEFAULT_CONTENT_TYPE, isLast);
+    }
+
+    public void addPart(final String key, final File value, String type, final boolean isLast) {
+        parts.add(new Part(createFileHeader(key, value.getName(), type), value));
+    }
+
+    private static byte[] createFileHeader(String key, String fileName, String type) {
+        return ("Content-Disposition: form-data; name=\"" + key + "\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: " + type + "\r\n"
+                + "Content-Transfer-Encoding: binary\r\n\r\n").getBytes();
     }
 
     @Override
     public long getContentLength() {
-        writeLastBoundaryIfNeeds();
-        return out.toByteArray().length;
+        long length = lastBoundaryLine.length;
+        for (Part part : parts) {
+            long partLength = part.getLength();
+            if (partLength < 0) {
+                // Length of a stream isn't known until it has been read
+                return -1;
+            }
+            length += boundaryLine.length + part.header.length + partLength + CR_LF.length;
+        }
+        return length;
     }
 
     @Override
@@ -145,22 +116,37 @@ class SimpleMultipartEntity implements HttpEntity {
 
     @Override
     public boolean isChunked() {
-        return false;
+        return getContentLength() < 0;
     }
 
+    // Files can be read again, so the request can be retried unless one of
+    // the parts is a stream
     @Override
     public boolean isRepeatable() {
-        return false;
+        for (Part part : parts) {
+            if (part.stream != null) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public boolean isStreaming() {
-        return false;
+        return !isRepeatable();
     }
 
     @Override
     public void writeTo(final OutputStream outstream) throws IOException {
-        outstream.write(out.toByteArray());
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (Part part : parts) {
+            outstream.write(boundaryLine);
+            outstream.write(part.header);
+            part.writeTo(outstream, buffer);
+            outstream.write(CR_LF);
+        }
+        outstream.write(lastBoundaryLine);
+        outstream.flush();
     }
 
     @Override
@@ -171,15 +157,66 @@ class SimpleMultipartEntity implements HttpEntity {
     @Override
     public void consumeContent() throws IOException,
     UnsupportedOperationException {
-        if (isStreaming()) {
-            throw new UnsupportedOperationException(
-            "Streaming entity does not implement #consumeContent()");
+        for (Part part : parts) {
+            if (part.stream != null) {
+                part.stream.close();
+            }
         }
     }
 
+    // Only used for debugging, builds the whole body in memory
     @Override
     public InputStream getContent() throws IOException,
     UnsupportedOperationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
         return new ByteArrayInputStream(out.toByteArray());
     }
-}
\ No newline at end of file
+
+    private static class Part {
+        final byte[] header;
+        byte[] data;
+        File file;
+        InputStream stream;
+
+        Part(byte[] header, byte[] data) {
+            this.header = header;
+            this.data = data;
+        }
+
+        Part(byte[] header, File file) {
+            this.header = header;
+            this.file = file;
+        }
+
+        Part(byte[] header, InputStream stream) {
+            this.header = header;
+            this.stream = stream;
+        }
+
+        long getLength() {
+            if (data != null) {
+                return data.length;
+            } else if (file != null) {
+                return file.length();
+            }
+            return -1;
+        }
+
+        void writeTo(OutputStream out, byte[] buffer) throws IOException {
+            if (data != null) {
+                out.write(data);
+                return;
+            }
+            InputStream in = file != null ? new FileInputStream(file) : stream;
+            try {
+                int l;
+                while ((l = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, l);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
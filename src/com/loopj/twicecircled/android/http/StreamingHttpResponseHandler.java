@@ -0,0 +1,153 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.twicecircled.android.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.concurrent.Executor;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.util.EntityUtils;
+
+import android.os.Message;
+
+/**
+ * Response handler that never buffers the response body. For a successful
+ * response only the status code is reported, with a null body, the body
+ * itself is read through a small buffer and thrown away so the connection
+ * can be reused. An error body is streamed into
+ * {@link #parseErrorBody(int, Reader)} and the result is delivered to
+ * {@link #onErrorResponse(int, Object)}.
+ * <p>
+ * Use this when the response body is only of interest if something went
+ * wrong, e.g. uploads.
+ */
+public class StreamingHttpResponseHandler extends AsyncHttpResponseHandler {
+    protected static final int ERROR_RESPONSE_MESSAGE = 101;
+
+    private static final int DISCARD_BUFFER_SIZE = 1024;
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    public StreamingHttpResponseHandler() {
+        super();
+    }
+
+    /**
+     * @see AsyncHttpResponseHandler#AsyncHttpResponseHandler(Executor)
+     */
+    public StreamingHttpResponseHandler(Executor callbackExecutor) {
+        super(callbackExecutor);
+    }
+
+
+    //
+    // Callbacks to be overridden, typically anonymously
+    //
+
+    /**
+     * Reads an error response body. Runs on the request thread while the
+     * response is still streaming in, so don't touch the UI from here. Any
+     * unread part of the body is discarded afterwards.
+     * @param statusCode the status code of the response
+     * @param body the response body
+     * @return the parsed error, passed on to {@link #onErrorResponse(int, Object)}
+     */
+    protected Object parseErrorBody(int statusCode, Reader body) throws IOException {
+        return null;
+    }
+
+    /**
+     * Fired when the server responds with an error status, override to
+     * handle in your own code
+     * @param statusCode the status code of the response
+     * @param error the result of {@link #parseErrorBody(int, Reader)}, null if there was no body
+     */
+    public void onErrorResponse(int statusCode, Object error) {}
+
+
+    //
+    // Pre-processing of messages (in original calling thread, typically the UI thread)
+    //
+
+    protected void handleErrorResponseMessage(int statusCode, Object error) {
+        onErrorResponse(statusCode, error);
+    }
+
+    // Methods which emulate android's Handler and Message methods
+    @Override
+    protected void handleMessage(Message msg) {
+        switch(msg.what) {
+            case ERROR_RESPONSE_MESSAGE:
+                Object[] response = (Object[]) msg.obj;
+                handleErrorResponseMessage(((Integer) response[0]).intValue(), response[1]);
+                break;
+            default:
+                super.handleMessage(msg);
+        }
+    }
+
+    // Interface to AsyncHttpRequest
+    @Override
+    void sendResponseMessage(HttpResponse response) {
+        StatusLine status = response.getStatusLine();
+        HttpEntity entity = response.getEntity();
+        try {
+            if(status.getStatusCode() >= 300) {
+                Object error = null;
+                if(entity != null) {
+                    InputStream in = entity.getContent();
+                    try {
+                        String charset = EntityUtils.getContentCharSet(entity);
+                        error = parseErrorBody(status.getStatusCode(), new InputStreamReader(in, charset != null ? charset : DEFAULT_CHARSET));
+                    } finally {
+                        discard(in);
+                    }
+                }
+                sendMessage(obtainMessage(ERROR_RESPONSE_MESSAGE, new Object[]{Integer.valueOf(status.getStatusCode()), error}));
+            } else {
+                if(entity != null) {
+                    discard(entity.getContent());
+                }
+                sendSuccessMessage(status.getStatusCode(), null);
+            }
+        } catch(IOException e) {
+            sendFailureMessage(e, (String) null);
+        }
+    }
+
+    // Reads the rest of the stream and closes it, which hands the connection
+    // back to the pool for reuse
+    private static void discard(InputStream in) throws IOException {
+        if(in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[DISCARD_BUFFER_SIZE];
+            while(in.read(buffer) != -1) {
+                // Nothing to do
+            }
+        } finally {
+            in.close();
+        }
+    }
+}